@@ -57,15 +57,22 @@ public class LavalinkUtil {
     }
 
     public static AudioTrack toAudioTrack(String message) throws IOException {
-        byte[] b64 = Base64.decode(message);
-        ByteArrayInputStream bais = new ByteArrayInputStream(b64);
+        return toAudioTrack(Base64.decode(message));
+    }
+
+    public static AudioTrack toAudioTrack(byte[] message) throws IOException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(message);
         return PLAYER_MANAGER.decodeTrack(new MessageInput(bais)).decodedTrack;
     }
 
     public static String toMessage(AudioTrack track) throws IOException {
+        return new String(Base64.encodeBytesToBytes(toBinary(track)));
+    }
+
+    public static byte[] toBinary(AudioTrack track) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         PLAYER_MANAGER.encodeTrack(new MessageOutput(baos), track);
-        return new String(Base64.encodeBytesToBytes(baos.toByteArray()));
+        return baos.toByteArray();
     }
 
     public static int getShardFromSnowflake(String snowflake, int numShards) {
@@ -28,6 +28,7 @@ import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.VoiceChannel;
 import net.dv8tion.jda.core.entities.impl.JDAImpl;
+import net.dv8tion.jda.core.utils.PermissionUtil;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.drafts.Draft_6455;
 import org.json.JSONObject;
@@ -47,6 +48,7 @@ public class Lavalink {
     private final ConcurrentHashMap<String, LavalinkPlayer> players = new ConcurrentHashMap<>(); // Key is guild id
     private final List<LavalinkSocket> nodes = new CopyOnWriteArrayList<>();
     private final LavalinkLoadBalancer loadBalancer = new LavalinkLoadBalancer(this);
+    private final ShardStateListener shardStateListener = new ShardStateListener(this);
 
     public Lavalink(int numShards, Function<Integer, JDA> jdaProvider) {
         this.numShards = numShards;
@@ -57,6 +59,7 @@ public class Lavalink {
         HashMap<String, String> headers = new HashMap<>();
         headers.put("Authorization", password);
         headers.put("Num-Shards", Integer.toString(numShards));
+        headers.put(WireFormat.HEADER, WireFormat.MSGPACK.getHeaderValue());
         nodes.add(new LavalinkSocket(this, serverUri, new Draft_6455(), headers));
     }
 
@@ -65,7 +68,9 @@ public class Lavalink {
         json.put("op", "connect");
         json.put("guildId", channel.getGuild().getId());
         json.put("channelId", channel.getId());
-        loadBalancer.getSocket(channel.getGuild()).send(json.toString());
+        // Spares the server from asking us to validate the channel
+        json.put("permissions", PermissionUtil.getEffectivePermission(channel, channel.getGuild().getSelfMember()));
+        loadBalancer.getSocket(channel.getGuild()).send(json);
         connectedChannels.put(channel.getGuild().getId(), channel.getId());
     }
 
@@ -73,7 +78,7 @@ public class Lavalink {
         JSONObject json = new JSONObject();
         json.put("op", "disconnect");
         json.put("guildId", guild.getId());
-        loadBalancer.getSocket(guild).send(json.toString());
+        loadBalancer.getSocket(guild).send(json);
         connectedChannels.remove(guild.getId());
     }
 
@@ -87,6 +92,33 @@ public class Lavalink {
 
     public void interceptJdaAudio(JDA jda) {
         ((JDAImpl) jda).getClient().getHandlers().put("VOICE_SERVER_UPDATE", new VoiceServerUpdateInterceptor(this, (JDAImpl) jda));
+        jda.addEventListener(shardStateListener);
+        sendShardState(jda);
+    }
+
+    void sendShardState(JDA jda) {
+        JSONObject json = getShardState(jda);
+        nodes.forEach(node -> {
+            if (node.isOpen()) node.send(json);
+        });
+    }
+
+    /**
+     * Pushes the states of all shards we know of. Used when a node connects
+     */
+    void sendShardStates(LavalinkSocket node) {
+        for (int i = 0; i < numShards; i++) {
+            JDA jda = jdaProvider.apply(i);
+            if (jda != null) node.send(getShardState(jda));
+        }
+    }
+
+    private JSONObject getShardState(JDA jda) {
+        JSONObject json = new JSONObject();
+        json.put("op", "shardState");
+        json.put("shardId", jda.getShardInfo() == null ? 0 : jda.getShardInfo().getShardId());
+        json.put("connected", ((JDAImpl) jda).getClient().isConnected());
+        return json;
     }
 
     public IPlayer getPlayer(String guildId) {
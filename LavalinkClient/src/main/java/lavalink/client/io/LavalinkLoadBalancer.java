@@ -66,7 +66,9 @@ public class LavalinkLoadBalancer {
         return new Penalties(socket);
     }
 
-    private static class Penalties {
+    static class Penalties {
+
+        private static final int RECENT_FRAME_WINDOW = 5; // seconds
 
         private int playerPenalty = 0;
         private int cpuPenalty = 0;
@@ -74,20 +76,37 @@ public class LavalinkLoadBalancer {
         private int nullFramePenalty = 0;
 
         private Penalties(LavalinkSocket socket) {
-            if (socket.stats == null) return;
+            this(socket.stats);
+        }
+
+        Penalties(RemoteStats stats) {
+            if (stats == null) return;
 
             // This will serve as a rule of thumb. 1 playing player = 1 penalty point
-            playerPenalty = socket.stats.getPlayingPlayers();
+            playerPenalty = stats.getPlayingPlayers();
 
             // https://fred.moe/293.png
-            cpuPenalty = (int) Math.pow(1.05d, 100 * socket.stats.getSystemLoad()) * 10 - 10;
-
-            // Means we don't have any frame stats. This is normal for very young nodes
-            if (socket.stats.getAvgFramesDeficitPerMinute() == -1) return;
+            cpuPenalty = (int) Math.pow(1.05d, 100 * stats.getSystemLoad()) * 10 - 10;
+
+            int deficitFrames;
+            int nulledFrames;
+            RemoteStats.FrameStats recent = stats.getFrameStats(RECENT_FRAME_WINDOW);
+
+            if (recent != null) {
+                // Prefer the short window so we react to struggling nodes quickly. Scaled to a minute
+                deficitFrames = recent.getDeficit() * (60 / RECENT_FRAME_WINDOW);
+                nulledFrames = recent.getNulled() * (60 / RECENT_FRAME_WINDOW);
+            } else if (stats.getAvgFramesDeficitPerMinute() != -1) {
+                deficitFrames = stats.getAvgFramesDeficitPerMinute();
+                nulledFrames = stats.getAvgFramesNulledPerMinute();
+            } else {
+                // Means we don't have any frame stats. This is normal for very young nodes
+                return;
+            }
 
             // https://fred.moe/UQJ.png
-            deficitFramePenalty = (int) Math.pow(1.02d, 200 * (socket.stats.getAvgFramesDeficitPerMinute() / 3000)) * 300 - 300;
-            nullFramePenalty = (int) Math.pow(1.02d, 200 * (socket.stats.getAvgFramesNulledPerMinute() / 3000)) * 300 - 300;
+            deficitFramePenalty = (int) Math.pow(1.02d, 200 * (deficitFrames / 3000)) * 300 - 300;
+            nullFramePenalty = (int) Math.pow(1.02d, 200 * (nulledFrames / 3000)) * 300 - 300;
             nullFramePenalty *= 2;
 
             // Deficit frames are better than null frames, as deficit frames can be caused by the garbage collector
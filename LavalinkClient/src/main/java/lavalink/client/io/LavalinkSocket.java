@@ -22,6 +22,7 @@
 
 package lavalink.client.io;
 
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
 import lavalink.client.LavalinkUtil;
 import lavalink.client.player.LavalinkPlayer;
@@ -44,6 +45,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 public class LavalinkSocket extends WebSocketClient {
@@ -52,6 +54,7 @@ public class LavalinkSocket extends WebSocketClient {
 
     private static final int TIMEOUT_MS = 5000;
     private final Lavalink lavalink;
+    private volatile WireFormat wireFormat = WireFormat.JSON;
     RemoteStats stats;
 
     LavalinkSocket(Lavalink lavalink, URI serverUri, Draft protocolDraft, Map<String, String> headers) {
@@ -66,7 +69,13 @@ public class LavalinkSocket extends WebSocketClient {
 
     @Override
     public void onOpen(ServerHandshake handshakeData) {
-        log.info("Received handshake from server");
+        wireFormat = WireFormat.fromHeader(handshakeData.getFieldValue(WireFormat.HEADER));
+        log.info("Received handshake from server, using wire format " + wireFormat);
+        lavalink.sendShardStates(this);
+    }
+
+    public void send(JSONObject json) {
+        wireFormat.send(this, json);
     }
 
     @Override
@@ -75,6 +84,27 @@ public class LavalinkSocket extends WebSocketClient {
 
         log.info(message);
 
+        handleMessage(json);
+    }
+
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        JSONObject json;
+        try {
+            json = WireFormat.unpack(bytes);
+        } catch (IOException e) {
+            log.error("Received malformed binary message", e);
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(json.toString());
+        }
+
+        handleMessage(json);
+    }
+
+    private void handleMessage(JSONObject json) {
         switch (json.getString("op")) {
             case "sendWS":
                 JDAImpl jda = (JDAImpl) lavalink.getShard(json.getInt("shardId"));
@@ -87,6 +117,7 @@ public class LavalinkSocket extends WebSocketClient {
 
                 JSONObject res = new JSONObject();
                 res.put("op", "validationRes");
+                echoRequestId(json, res);
                 String mysteryId = json.getString("guildOrChannelId");
                 Guild guild = jda2.getGuildById(mysteryId);
                 VoiceChannel vc = jda2.getVoiceChannelById(mysteryId);
@@ -97,7 +128,7 @@ public class LavalinkSocket extends WebSocketClient {
                     res.put("channelId", vc.getId());
                     res.put("valid", PermissionUtil.checkPermission(vc, guild.getSelfMember(),
                             Permission.VOICE_CONNECT, Permission.VOICE_SPEAK));
-                    send(res.toString());
+                    send(res);
                     break;
                 }
 
@@ -105,21 +136,22 @@ public class LavalinkSocket extends WebSocketClient {
                     res.put("guildId", mysteryId);
                     res.put("channelId", mysteryId);
                     res.put("valid", false);
-                    send(res.toString());
+                    send(res);
                     break;
                 }
 
                 res.put("guildId", mysteryId);
                 res.put("valid", true);
-                send(res.toString());
+                send(res);
                 break;
             case "isConnectedReq":
                 JDAImpl jda3 = (JDAImpl) lavalink.getShard(json.getInt("shardId"));
                 JSONObject res2 = new JSONObject();
                 res2.put("op", "isConnectedRes");
+                echoRequestId(json, res2);
                 res2.put("shardId", json.getInt("shardId"));
                 res2.put("connected", jda3.getClient().isConnected());
-                send(res2.toString());
+                send(res2);
                 break;
             case "playerUpdate":
                 ((LavalinkPlayer) lavalink.getPlayer(json.getString("guildId")))
@@ -141,6 +173,13 @@ public class LavalinkSocket extends WebSocketClient {
         }
     }
 
+    // Lets the server match our reply to its request
+    private static void echoRequestId(JSONObject request, JSONObject response) {
+        if (request.has("requestId")) {
+            response.put("requestId", request.getLong("requestId"));
+        }
+    }
+
     /**
      * Implementation details:
      * The only events extending {@link lavalink.client.player.event.PlayerEvent} produced by the remote server are these:
@@ -157,22 +196,26 @@ public class LavalinkSocket extends WebSocketClient {
         switch (json.getString("type")) {
             case "TrackEndEvent":
                 event = new TrackEndEvent(player,
-                        LavalinkUtil.toAudioTrack(json.getString("track")),
+                        readTrack(json),
                         AudioTrackEndReason.valueOf(json.getString("reason"))
                 );
                 break;
             case "TrackExceptionEvent":
                 event = new TrackExceptionEvent(player,
-                        LavalinkUtil.toAudioTrack(json.getString("track")),
+                        readTrack(json),
                         new RemoteTrackException(json.getString("error"))
                 );
                 break;
             case "TrackStuckEvent":
                 event = new TrackStuckEvent(player,
-                        LavalinkUtil.toAudioTrack(json.getString("track")),
+                        readTrack(json),
                         json.getLong("thresholdMs")
                 );
                 break;
+            case "PlayerDestroyedEvent":
+                // The node reaped an idle player, so its volume and pause state are gone too
+                player.resetState();
+                break;
             default:
                 log.warn("Unexpected event type: " + json.getString("type"));
                 break;
@@ -181,6 +224,15 @@ public class LavalinkSocket extends WebSocketClient {
         if (event != null) player.emitEvent(event);
     }
 
+    // Binary servers send the raw track, JSON servers send it base64 encoded
+    private static AudioTrack readTrack(JSONObject json) throws IOException {
+        Object track = json.get("track");
+        if (track instanceof byte[]) {
+            return LavalinkUtil.toAudioTrack((byte[]) track);
+        }
+        return LavalinkUtil.toAudioTrack(json.getString("track"));
+    }
+
     @Override
     public void onClose(int code, String reason, boolean remote) {
         log.info("Connection closed with reason " + code + ": " + reason + " :: Remote=" + remote);
@@ -24,6 +24,9 @@ package lavalink.client.io;
 
 import org.json.JSONObject;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class RemoteStats {
 
     private int players;
@@ -44,6 +47,9 @@ public class RemoteStats {
     private int avgFramesNulledPerMinute = -1;
     private int avgFramesDeficitPerMinute = -1;
 
+    // Window size in seconds -> frame stats
+    private final Map<Integer, FrameStats> frameStatsWindows = new HashMap<>();
+
     RemoteStats(JSONObject json) {
         players = json.getInt("players");
         playingPlayers = json.getInt("playingPlayers");
@@ -65,6 +71,15 @@ public class RemoteStats {
             avgFramesNulledPerMinute = frames.getInt("nulled");
             avgFramesDeficitPerMinute = frames.getInt("deficit");
         }
+
+        // Not sent by older nodes
+        JSONObject windows = json.optJSONObject("frameStatsWindows");
+
+        if (windows != null) {
+            for (String window : windows.keySet()) {
+                frameStatsWindows.put(Integer.parseInt(window), new FrameStats(windows.getJSONObject(window)));
+            }
+        }
     }
 
     public int getPlayers() {
@@ -119,6 +134,14 @@ public class RemoteStats {
         return avgFramesDeficitPerMinute;
     }
 
+    /**
+     * @param windowSeconds the window size in seconds, such as 5, 30 or 60
+     * @return the average frame stats per playing player over the window, or null if the node has no data for it
+     */
+    public FrameStats getFrameStats(int windowSeconds) {
+        return frameStatsWindows.get(windowSeconds);
+    }
+
     @Override
     public String toString() {
         return "RemoteStats{" +
@@ -135,6 +158,41 @@ public class RemoteStats {
                 ", avgFramesSentPerMinute=" + avgFramesSentPerMinute +
                 ", avgFramesNulledPerMinute=" + avgFramesNulledPerMinute +
                 ", avgFramesDeficitPerMinute=" + avgFramesDeficitPerMinute +
+                ", frameStatsWindows=" + frameStatsWindows +
                 '}';
     }
+
+    public static class FrameStats {
+
+        private final int sent;
+        private final int nulled;
+        private final int deficit;
+
+        private FrameStats(JSONObject json) {
+            sent = json.getInt("sent");
+            nulled = json.getInt("nulled");
+            deficit = json.getInt("deficit");
+        }
+
+        public int getSent() {
+            return sent;
+        }
+
+        public int getNulled() {
+            return nulled;
+        }
+
+        public int getDeficit() {
+            return deficit;
+        }
+
+        @Override
+        public String toString() {
+            return "FrameStats{" +
+                    "sent=" + sent +
+                    ", nulled=" + nulled +
+                    ", deficit=" + deficit +
+                    '}';
+        }
+    }
 }
@@ -60,7 +60,7 @@ public class VoiceServerUpdateInterceptor extends SocketHandler {
         json.put("sessionId", sessionId);
         json.put("guildId", guild.getId());
         json.put("event", content);
-        lavalink.getSocket(guild.getId()).send(json.toString());
+        lavalink.getSocket(guild.getId()).send(json);
 
         log.info("Sent voice update");
 
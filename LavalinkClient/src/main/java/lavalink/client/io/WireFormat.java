@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.client.io;
+
+import lavalink.common.WireCodec;
+import org.java_websocket.WebSocket;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The framing used on a websocket connection. We request {@link #MSGPACK} with the {@link #HEADER} handshake header,
+ * and only use it if the server echoes the header back. Older servers don't, and will keep receiving JSON.
+ * <p>
+ * See {@link WireCodec} for how ops are converted.
+ */
+public enum WireFormat {
+
+    JSON {
+        @Override
+        void send(WebSocket socket, JSONObject json) {
+            socket.send(WireCodec.toJsonString(json));
+        }
+    },
+
+    MSGPACK {
+        @Override
+        void send(WebSocket socket, JSONObject json) {
+            socket.send(WireCodec.pack(json));
+        }
+    };
+
+    public static final String HEADER = "Wire-Format";
+
+    abstract void send(WebSocket socket, JSONObject json);
+
+    String getHeaderValue() {
+        return name().toLowerCase();
+    }
+
+    static WireFormat fromHeader(String value) {
+        return MSGPACK.getHeaderValue().equalsIgnoreCase(value) ? MSGPACK : JSON;
+    }
+
+    /**
+     * Ops are still unpacked into a full {@link JSONObject}, the same as JSON text frames are parsed
+     */
+    static JSONObject unpack(ByteBuffer buffer) throws IOException {
+        return WireCodec.unpack(buffer);
+    }
+
+}
@@ -65,8 +65,8 @@ public class LavalinkPlayer implements IPlayer {
             JSONObject json = new JSONObject();
             json.put("op", "play");
             json.put("guildId", guildId);
-            json.put("track", LavalinkUtil.toMessage(track));
-            socket.send(json.toString());
+            json.put("track", LavalinkUtil.toBinary(track));
+            socket.send(json);
             position = 0;
             updateTime = System.currentTimeMillis();
             this.track = track;
@@ -83,7 +83,7 @@ public class LavalinkPlayer implements IPlayer {
         JSONObject json = new JSONObject();
         json.put("op", "stop");
         json.put("guildId", guildId);
-        socket.send(json.toString());
+        socket.send(json);
         track = null;
     }
 
@@ -95,7 +95,7 @@ public class LavalinkPlayer implements IPlayer {
         json.put("op", "pause");
         json.put("guildId", guildId);
         json.put("pause", pause);
-        socket.send(json.toString());
+        socket.send(json);
         paused = pause;
 
         if (pause) {
@@ -129,7 +129,7 @@ public class LavalinkPlayer implements IPlayer {
         json.put("op", "seek");
         json.put("guildId", guildId);
         json.put("position", position);
-        socket.send(json.toString());
+        socket.send(json);
     }
 
     @Override
@@ -140,7 +140,7 @@ public class LavalinkPlayer implements IPlayer {
         json.put("op", "volume");
         json.put("guildId", guildId);
         json.put("volume", volume);
-        socket.send(json.toString());
+        socket.send(json);
         this.volume = volume;
     }
 
@@ -149,6 +149,29 @@ public class LavalinkPlayer implements IPlayer {
         return volume;
     }
 
+    /**
+     * Frees the player on the node. The node creates a new one if this player is used again.
+     */
+    public void destroy() {
+        JSONObject json = new JSONObject();
+        json.put("op", "destroy");
+        json.put("guildId", guildId);
+        socket.send(json);
+        resetState();
+    }
+
+    /**
+     * Forgets the state applied to the player on the node. Called when the node's player is destroyed, as its
+     * replacement starts over with the defaults.
+     */
+    public void resetState() {
+        track = null;
+        paused = false;
+        volume = 100;
+        updateTime = -1;
+        position = -1;
+    }
+
     public void provideState(JSONObject json) {
         updateTime = json.getLong("time");
         position = json.getLong("position");
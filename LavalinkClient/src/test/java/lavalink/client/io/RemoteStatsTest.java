@@ -43,4 +43,65 @@ class RemoteStatsTest {
         log.info(stats + "");
     }
 
+    @Test
+    void noFrameStatsPenaltyTest() {
+        RemoteStats stats = new RemoteStats(stats(null, null));
+
+        Assertions.assertNull(stats.getFrameStats(5));
+
+        LavalinkLoadBalancer.Penalties penalties = new LavalinkLoadBalancer.Penalties(stats);
+        Assertions.assertEquals(2, penalties.getPlayerPenalty());
+        Assertions.assertEquals(0, penalties.getDeficitFramePenalty());
+        Assertions.assertEquals(0, penalties.getNullFramePenalty());
+    }
+
+    @Test
+    void minuteFrameStatsTest() {
+        // Older nodes only send the one minute average
+        RemoteStats stats = new RemoteStats(stats(frames(2950, 50, 3000), null));
+
+        Assertions.assertEquals(2950, stats.getAvgFramesSentPerMinute());
+        Assertions.assertEquals(50, stats.getAvgFramesNulledPerMinute());
+        Assertions.assertEquals(3000, stats.getAvgFramesDeficitPerMinute());
+        Assertions.assertNull(stats.getFrameStats(5));
+
+        LavalinkLoadBalancer.Penalties penalties = new LavalinkLoadBalancer.Penalties(stats);
+        // 3000 deficit frames per minute: (int) 1.02^200 * 300 - 300
+        Assertions.assertEquals(15300, penalties.getDeficitFramePenalty());
+        Assertions.assertEquals(0, penalties.getNullFramePenalty());
+    }
+
+    @Test
+    void windowedFrameStatsTest() {
+        JSONObject windows = new JSONObject()
+                .put("5", frames(0, 250, 0))
+                .put("30", frames(1500, 0, 0))
+                .put("60", frames(3000, 0, 0));
+        RemoteStats stats = new RemoteStats(stats(frames(3000, 0, 0), windows));
+
+        Assertions.assertEquals(250, stats.getFrameStats(5).getNulled());
+        Assertions.assertEquals(1500, stats.getFrameStats(30).getSent());
+        Assertions.assertEquals(3000, stats.getFrameStats(60).getSent());
+        Assertions.assertNull(stats.getFrameStats(10));
+
+        LavalinkLoadBalancer.Penalties penalties = new LavalinkLoadBalancer.Penalties(stats);
+        // The 5 second window wins over the clean minute average. 250 nulled frames scale to 3000 per minute
+        Assertions.assertEquals(0, penalties.getDeficitFramePenalty());
+        Assertions.assertEquals(2 * 15300, penalties.getNullFramePenalty());
+    }
+
+    private static JSONObject stats(JSONObject frameStats, JSONObject frameStatsWindows) {
+        JSONObject json = new JSONObject("{\"playingPlayers\":2,\"op\":\"stats\",\"memory\":{\"reservable\":1892155392,\"used\":67111552,\"free\":137885056,\"allocated\":204996608},\"players\":3,\"cpu\":{\"cores\":4,\"systemLoad\":0,\"lavalinkLoad\":0},\"uptime\":15754}");
+        if (frameStats != null) json.put("frameStats", frameStats);
+        if (frameStatsWindows != null) json.put("frameStatsWindows", frameStatsWindows);
+        return json;
+    }
+
+    private static JSONObject frames(int sent, int nulled, int deficit) {
+        return new JSONObject()
+                .put("sent", sent)
+                .put("nulled", nulled)
+                .put("deficit", deficit);
+    }
+
 }
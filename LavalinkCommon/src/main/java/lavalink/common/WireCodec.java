@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Converts ops between {@link JSONObject}s and the two websocket framings, JSON text and MessagePack binary.
+ * <p>
+ * Byte array and {@link BinaryValue} values (encoded tracks) are sent as raw binary with MessagePack, and as base64
+ * strings with JSON. Received MessagePack binaries become byte arrays.
+ */
+public final class WireCodec {
+
+    private WireCodec() {
+    }
+
+    /**
+     * Doesn't modify the given object, even if it holds binary values
+     */
+    public static String toJsonString(JSONObject json) {
+        JSONObject encoded = null;
+
+        for (String key : json.keySet()) {
+            Object value = json.get(key);
+            String base64;
+            if (value instanceof byte[]) {
+                base64 = Base64.getEncoder().encodeToString((byte[]) value);
+            } else if (value instanceof BinaryValue) {
+                base64 = ((BinaryValue) value).getBase64();
+            } else {
+                continue;
+            }
+
+            // Only copy the object if there is something to replace. The copy is shallow
+            if (encoded == null) encoded = new JSONObject(json, JSONObject.getNames(json));
+            encoded.put(key, base64);
+        }
+
+        return (encoded != null ? encoded : json).toString();
+    }
+
+    public static byte[] pack(JSONObject json) {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        try {
+            packValue(packer, json);
+            packer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return packer.toByteArray();
+    }
+
+    public static JSONObject unpack(ByteBuffer buffer) throws IOException {
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(buffer)) {
+            Object value = unpackValue(unpacker);
+            if (!(value instanceof JSONObject)) {
+                throw new IOException("Expected a map at the root of the message");
+            }
+            return (JSONObject) value;
+        }
+    }
+
+    private static void packValue(MessagePacker packer, Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            packer.packNil();
+        } else if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            packer.packMapHeader(json.length());
+            for (String key : json.keySet()) {
+                packer.packString(key);
+                packValue(packer, json.get(key));
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            packer.packArrayHeader(array.length());
+            for (Object element : array) {
+                packValue(packer, element);
+            }
+        } else if (value instanceof byte[] || value instanceof BinaryValue) {
+            byte[] bytes = value instanceof byte[] ? (byte[]) value : ((BinaryValue) value).getBytes();
+            packer.packBinaryHeader(bytes.length);
+            packer.writePayload(bytes);
+        } else if (value instanceof Boolean) {
+            packer.packBoolean((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            packer.packDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            packer.packLong(((Number) value).longValue());
+        } else {
+            packer.packString(value.toString());
+        }
+    }
+
+    private static Object unpackValue(MessageUnpacker unpacker) throws IOException {
+        switch (unpacker.getNextFormat().getValueType()) {
+            case NIL:
+                unpacker.unpackNil();
+                return JSONObject.NULL;
+            case BOOLEAN:
+                return unpacker.unpackBoolean();
+            case INTEGER:
+                long l = unpacker.unpackLong();
+                // Mirror org.json, which parses small numbers as Integer
+                return l == (int) l ? (Object) (int) l : (Object) l;
+            case FLOAT:
+                return unpacker.unpackDouble();
+            case STRING:
+                return unpacker.unpackString();
+            case BINARY:
+                return unpacker.readPayload(unpacker.unpackBinaryHeader());
+            case ARRAY:
+                int size = unpacker.unpackArrayHeader();
+                JSONArray array = new JSONArray();
+                for (int i = 0; i < size; i++) {
+                    array.put(unpackValue(unpacker));
+                }
+                return array;
+            case MAP:
+                int entries = unpacker.unpackMapHeader();
+                JSONObject json = new JSONObject();
+                for (int i = 0; i < entries; i++) {
+                    String key = unpacker.unpackString();
+                    json.put(key, unpackValue(unpacker));
+                }
+                return json;
+            default:
+                unpacker.skipValue();
+                return JSONObject.NULL;
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+class WireCodecTest {
+
+    private static final byte[] TRACK = {0, 1, 2, 3, -128, 127, -1};
+
+    @Test
+    void roundTripTest() throws Exception {
+        JSONObject json = new JSONObject()
+                .put("op", "play")
+                .put("guildId", "1234567890")
+                .put("small", 42)
+                .put("large", 1L << 40)
+                .put("volume", 0.5)
+                .put("pause", true)
+                .put("none", JSONObject.NULL)
+                .put("track", TRACK)
+                .put("list", new JSONArray().put(1).put("two").put(new JSONObject().put("three", 3)));
+
+        JSONObject unpacked = WireCodec.unpack(ByteBuffer.wrap(WireCodec.pack(json)));
+
+        Assertions.assertEquals("play", unpacked.getString("op"));
+        Assertions.assertEquals("1234567890", unpacked.getString("guildId"));
+        Assertions.assertEquals(42, unpacked.get("small"));
+        Assertions.assertEquals(1L << 40, unpacked.get("large"));
+        Assertions.assertEquals(0.5, unpacked.getDouble("volume"));
+        Assertions.assertTrue(unpacked.getBoolean("pause"));
+        Assertions.assertTrue(unpacked.isNull("none"));
+        Assertions.assertArrayEquals(TRACK, (byte[]) unpacked.get("track"));
+
+        JSONArray list = unpacked.getJSONArray("list");
+        Assertions.assertEquals(3, list.length());
+        Assertions.assertEquals(1, list.get(0));
+        Assertions.assertEquals("two", list.get(1));
+        Assertions.assertEquals(3, list.getJSONObject(2).get("three"));
+    }
+
+    @Test
+    void rejectNonMapRootTest() {
+        byte[] packed = WireCodec.pack(new JSONObject().put("list", new JSONArray().put(1)));
+        // Skip the map header and the key, leaving only the array
+        ByteBuffer array = ByteBuffer.wrap(packed, 1 + 1 + "list".length(), packed.length - 6);
+
+        Assertions.assertThrows(IOException.class, () -> WireCodec.unpack(array));
+    }
+
+    @Test
+    void jsonEncodesBinaryAsBase64Test() {
+        JSONObject json = new JSONObject()
+                .put("op", "play")
+                .put("track", TRACK);
+
+        JSONObject parsed = new JSONObject(WireCodec.toJsonString(json));
+
+        Assertions.assertEquals("play", parsed.getString("op"));
+        Assertions.assertEquals(Base64.getEncoder().encodeToString(TRACK), parsed.getString("track"));
+    }
+
+    @Test
+    void binaryValueTest() throws Exception {
+        BinaryValue value = new BinaryValue() {
+            @Override
+            public byte[] getBytes() {
+                return TRACK;
+            }
+
+            @Override
+            public String getBase64() {
+                return "cached";
+            }
+        };
+        JSONObject json = new JSONObject().put("track", value);
+
+        // JSON uses the value's own base64 form, MessagePack its bytes
+        Assertions.assertEquals("cached", new JSONObject(WireCodec.toJsonString(json)).getString("track"));
+        Assertions.assertArrayEquals(TRACK,
+                (byte[]) WireCodec.unpack(ByteBuffer.wrap(WireCodec.pack(json))).get("track"));
+        Assertions.assertSame(value, json.get("track"));
+    }
+
+    @Test
+    void jsonDoesNotModifyCallerTest() {
+        JSONObject json = new JSONObject().put("track", TRACK);
+
+        WireCodec.toJsonString(json);
+
+        Assertions.assertSame(TRACK, json.get("track"));
+    }
+
+}
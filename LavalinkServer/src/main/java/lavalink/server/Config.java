@@ -25,20 +25,53 @@ package lavalink.server;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @ConfigurationProperties(prefix = "lavalink.server")
 @Component
 public class Config {
 
     private final Sources sources = new Sources();
+    private final Validation validation = new Validation();
+    private final LoadCache loadCache = new LoadCache();
 
     public Sources getSources() {
         return sources;
     }
 
+    public Validation getValidation() {
+        return validation;
+    }
+
+    public LoadCache getLoadCache() {
+        return loadCache;
+    }
+
     private String userId;
 
     private String password;
 
+    private int opWorkers = 0;
+
+    private long playerIdleTimeout = 600; // seconds
+
+    private long statsInterval = 60; // seconds
+
+    private int nasShards = 0;
+
+    private String audioSendSystem = "auto"; // auto, nas, nio or jda
+
+    private int nioChannels = 0;
+
+    private int nioBufferFrames = 5;
+
+    private int decodedTrackCacheSize = 1000;
+
+    private int loadBatchParallelism = 8;
+
+    private int loadBatchMaxSize = 100;
+
     public String getUserId() {
         return userId;
     }
@@ -55,6 +88,86 @@ public class Config {
         this.password = password;
     }
 
+    public int getOpWorkers() {
+        return opWorkers;
+    }
+
+    public void setOpWorkers(int opWorkers) {
+        this.opWorkers = opWorkers;
+    }
+
+    public long getPlayerIdleTimeout() {
+        return playerIdleTimeout;
+    }
+
+    public void setPlayerIdleTimeout(long playerIdleTimeout) {
+        this.playerIdleTimeout = playerIdleTimeout;
+    }
+
+    public long getStatsInterval() {
+        return statsInterval;
+    }
+
+    public void setStatsInterval(long statsInterval) {
+        this.statsInterval = statsInterval;
+    }
+
+    public int getNasShards() {
+        return nasShards;
+    }
+
+    public void setNasShards(int nasShards) {
+        this.nasShards = nasShards;
+    }
+
+    public String getAudioSendSystem() {
+        return audioSendSystem;
+    }
+
+    public void setAudioSendSystem(String audioSendSystem) {
+        this.audioSendSystem = audioSendSystem;
+    }
+
+    public int getNioChannels() {
+        return nioChannels;
+    }
+
+    public void setNioChannels(int nioChannels) {
+        this.nioChannels = nioChannels;
+    }
+
+    public int getNioBufferFrames() {
+        return nioBufferFrames;
+    }
+
+    public void setNioBufferFrames(int nioBufferFrames) {
+        this.nioBufferFrames = nioBufferFrames;
+    }
+
+    public int getDecodedTrackCacheSize() {
+        return decodedTrackCacheSize;
+    }
+
+    public void setDecodedTrackCacheSize(int decodedTrackCacheSize) {
+        this.decodedTrackCacheSize = decodedTrackCacheSize;
+    }
+
+    public int getLoadBatchParallelism() {
+        return loadBatchParallelism;
+    }
+
+    public void setLoadBatchParallelism(int loadBatchParallelism) {
+        this.loadBatchParallelism = loadBatchParallelism;
+    }
+
+    public int getLoadBatchMaxSize() {
+        return loadBatchMaxSize;
+    }
+
+    public void setLoadBatchMaxSize(int loadBatchMaxSize) {
+        this.loadBatchMaxSize = loadBatchMaxSize;
+    }
+
     public static class Sources {
 
         private boolean youtube = true;
@@ -112,4 +225,112 @@ public class Config {
             this.http = http;
         }
     }
+
+    public static class Validation {
+
+        private long cacheTtl = 300; // seconds
+        private int cacheSize = 10000;
+        private long trustWindow = 10; // seconds
+
+        public long getCacheTtl() {
+            return cacheTtl;
+        }
+
+        public void setCacheTtl(long cacheTtl) {
+            this.cacheTtl = cacheTtl;
+        }
+
+        public int getCacheSize() {
+            return cacheSize;
+        }
+
+        public void setCacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+        }
+
+        public long getTrustWindow() {
+            return trustWindow;
+        }
+
+        public void setTrustWindow(long trustWindow) {
+            this.trustWindow = trustWindow;
+        }
+    }
+
+    public static class LoadCache {
+
+        private static final int MAX_DISK_SIZE = Integer.MAX_VALUE / (1024 * 1024); // MiB
+
+        private boolean enabled = true;
+        private int maxMemory = 64; // MiB
+        private long defaultTtl = 3600; // seconds
+        private long negativeTtl = 30; // seconds
+        private String diskPath = null;
+        private int diskSize = 256; // MiB
+        // Source name -> seconds
+        private final Map<String, Long> sourceTtls = new HashMap<>();
+
+        public LoadCache() {
+            // Live streams and arbitrary URLs can change quickly
+            sourceTtls.put("twitch", 60L);
+            sourceTtls.put("http", 300L);
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxMemory() {
+            return maxMemory;
+        }
+
+        public void setMaxMemory(int maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        public long getDefaultTtl() {
+            return defaultTtl;
+        }
+
+        public void setDefaultTtl(long defaultTtl) {
+            this.defaultTtl = defaultTtl;
+        }
+
+        public long getNegativeTtl() {
+            return negativeTtl;
+        }
+
+        public void setNegativeTtl(long negativeTtl) {
+            this.negativeTtl = negativeTtl;
+        }
+
+        public String getDiskPath() {
+            return diskPath;
+        }
+
+        public void setDiskPath(String diskPath) {
+            this.diskPath = diskPath;
+        }
+
+        public int getDiskSize() {
+            return diskSize;
+        }
+
+        public void setDiskSize(int diskSize) {
+            // The file is memory mapped, which Java limits to 2 GiB
+            if (diskSize < 1 || diskSize > MAX_DISK_SIZE) {
+                throw new IllegalArgumentException("loadCache.diskSize must be between 1 and " + MAX_DISK_SIZE
+                        + " MiB, got " + diskSize);
+            }
+            this.diskSize = diskSize;
+        }
+
+        public Map<String, Long> getSourceTtls() {
+            return sourceTtls;
+        }
+    }
 }
@@ -23,12 +23,14 @@
 package lavalink.server;
 
 import lavalink.server.io.SocketServer;
+import lavalink.server.metrics.Metrics;
 import lavalink.server.nas.NativeAudioSendFactory;
+import lavalink.server.nio.NioAudioSendFactory;
+import lavalink.server.player.TrackLoadCache;
 import net.dv8tion.jda.audio.AudioConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.context.annotation.Bean;
@@ -46,6 +48,8 @@ public class Launcher {
 
     public final static long startTime = System.currentTimeMillis();
     public static Config config;
+    // Set once audio sending is set up, if it is done by the nio factory
+    public static volatile NioAudioSendFactory nioSendFactory;
     public final SocketServer socketServer;
 
     @Autowired
@@ -63,23 +67,60 @@ public class Launcher {
 
         log.info("OS: " + System.getProperty("os.name") + ", Arch: " + System.getProperty("os.arch"));
 
-        if ((os.contains("Windows") || os.contains("Linux"))
+        boolean nasSupported = (os.contains("Windows") || os.contains("Linux"))
                 && !System.getProperty("os.arch").equalsIgnoreCase("arm")
-                && !System.getProperty("os.arch").equalsIgnoreCase("arm-linux")
-                ) {
-            AudioConnection.setAudioSendFactory(new NativeAudioSendFactory());
-            log.info("JDA-NAS supported system detected. Enabled native audio sending.");
-        } else {
-            log.warn("This system and architecture appears to not support native audio sending! "
-                    + "GC pauses may cause your bot to stutter during playback.");
+                && !System.getProperty("os.arch").equalsIgnoreCase("arm-linux");
+
+        String sendSystem = config.getAudioSendSystem().toLowerCase();
+        if (sendSystem.equals("auto")) {
+            // nio stays opt-in until it has been measured against nas
+            sendSystem = nasSupported ? "nas" : "jda";
+        }
+
+        switch (sendSystem) {
+            case "nas":
+                if (!nasSupported) {
+                    log.warn("This system and architecture appears to not support native audio sending! "
+                            + "Enabling it anyway as configured.");
+                }
+                NativeAudioSendFactory sendFactory = new NativeAudioSendFactory(config.getNasShards());
+                AudioConnection.setAudioSendFactory(sendFactory);
+                Metrics.register(sendFactory);
+                log.info("JDA-NAS supported system detected. Enabled native audio sending.");
+                break;
+            case "nio":
+                NioAudioSendFactory nioFactory = new NioAudioSendFactory(config.getNioChannels(), config.getNioBufferFrames());
+                AudioConnection.setAudioSendFactory(nioFactory);
+                Metrics.register(nioFactory);
+                nioSendFactory = nioFactory;
+                log.info("Enabled non-blocking audio sending. "
+                        + "GC pauses may still cause your bot to stutter during playback.");
+                break;
+            case "jda":
+                if (!nasSupported) {
+                    log.warn("This system and architecture appears to not support native audio sending! "
+                            + "GC pauses may cause your bot to stutter during playback.");
+                } else {
+                    log.warn("Using JDA's default audio sending. "
+                            + "GC pauses may cause your bot to stutter during playback.");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown audio send system: " + config.getAudioSendSystem());
         }
     }
 
-    @Bean
-    static SocketServer socketServer(@Value("${lavalink.server.password}") String password) {
-        SocketServer ss = new SocketServer(password);
+    @Bean(destroyMethod = "stop")
+    static SocketServer socketServer(Config config) {
+        SocketServer ss = new SocketServer(config);
         ss.start();
         return ss;
     }
 
+    // Not static, so that the config has been set when the cache is created
+    @Bean(destroyMethod = "close")
+    TrackLoadCache trackLoadCache() {
+        return TrackLoadCache.INSTANCE;
+    }
+
 }
@@ -23,29 +23,20 @@
 package lavalink.server.io;
 
 import net.dv8tion.jda.CoreClient;
-import org.java_websocket.WebSocket;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 public class CoreClientImpl implements CoreClient {
 
     private static final Logger log = LoggerFactory.getLogger(CoreClientImpl.class);
     private static final int TIMEOUT = 5000;
 
-    private final WebSocket socket;
+    private final SocketContext context;
     private int shardId;
 
-    private final Object validationObj = new Object();
-    private final Object isConnectionObj = new Object();
-
-    private ConcurrentHashMap<String, Boolean> validMap = new ConcurrentHashMap<>();
-    private boolean connected = false;
-
-    CoreClientImpl(WebSocket socket, int shardId) {
-        this.socket = socket;
+    CoreClientImpl(SocketContext context, int shardId) {
+        this.context = context;
         this.shardId = shardId;
     }
 
@@ -56,30 +47,38 @@ public class CoreClientImpl implements CoreClient {
         json.put("op", "sendWS");
         json.put("shardId", shardId);
         json.put("message", message);
-        socket.send(json.toString());
+        context.send(json);
     }
 
     @Override
     public boolean isConnected() {
-        return requestIsConnectedSync();
+        // Clients that push their shard states spare us the round trip
+        Boolean connected = context.isShardConnected(shardId);
+        return connected != null ? connected : requestIsConnectedSync();
     }
 
     @Override
     public boolean inGuild(String guildId) {
         log.info("Requested guild check");
-        return requestValidationSync(guildId);
+        return validate(guildId);
     }
 
     @Override
     public boolean voiceChannelExists(String s) {
         log.info("Requested channel check");
-        return validMap.getOrDefault(s, false) || requestValidationSync(s);
+        return validate(s);
     }
 
     @Override
     public boolean hasPermissionInChannel(String s, long l) {
         log.info("Requested permission check");
-        return validMap.getOrDefault(s, false) || requestValidationSync(s);
+        Boolean cached = context.getValidationCache().hasPermission(s, l);
+        return cached != null ? cached : requestValidationSync(s);
+    }
+
+    private boolean validate(String guildOrVcId) {
+        Boolean cached = context.getValidationCache().get(guildOrVcId);
+        return cached != null ? cached : requestValidationSync(guildOrVcId);
     }
 
     private boolean requestValidationSync(String guildOrVcId) {
@@ -87,31 +86,22 @@ public class CoreClientImpl implements CoreClient {
         json.put("op", "validationReq");
         json.put("guildOrChannelId", guildOrVcId);
 
-        long startTime = System.currentTimeMillis();
-        socket.send(json.toString());
-
-        try {
-            synchronized (validationObj) {
-                validationObj.wait(TIMEOUT);
-            }
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-
-        if (System.currentTimeMillis() - startTime >= TIMEOUT) {
-            throw new RuntimeException("Validation timed out");
-        }
-
-        return validMap.get(guildOrVcId);
+        return context.getPendingRequests().request(json, guildOrVcId, TIMEOUT);
     }
 
-    void provideValidation(String guildId, String channelId, boolean valid) {
-        validMap.put(guildId, valid);
-        if (channelId != null) {
-            validMap.put(channelId, valid);
-        }
-        synchronized (validationObj) {
-            validationObj.notifyAll();
+    /**
+     * @param requestId the id of the request this is a reply to, or -1 if the client didn't provide it
+     */
+    void provideValidation(long requestId, String guildId, String channelId, boolean valid) {
+        context.getValidationCache().put(guildId, channelId, valid);
+
+        if (requestId != -1) {
+            context.getPendingRequests().complete(requestId, valid);
+        } else {
+            context.getPendingRequests().completeByKey(guildId, valid);
+            if (channelId != null) {
+                context.getPendingRequests().completeByKey(channelId, valid);
+            }
         }
     }
 
@@ -120,29 +110,22 @@ public class CoreClientImpl implements CoreClient {
         json.put("op", "isConnectedReq");
         json.put("shardId", shardId);
 
-        long startTime = System.currentTimeMillis();
-        socket.send(json.toString());
-
-        try {
-            synchronized (isConnectionObj) {
-                isConnectionObj.wait(TIMEOUT);
-            }
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
+        return context.getPendingRequests().request(json, getConnectionKey(), TIMEOUT);
+    }
 
-        if (System.currentTimeMillis() - startTime >= TIMEOUT) {
-            throw new RuntimeException("Connection checking timed out");
+    /**
+     * @param requestId the id of the request this is a reply to, or -1 if the client didn't provide it
+     */
+    void provideIsConnected(long requestId, boolean connected) {
+        if (requestId != -1) {
+            context.getPendingRequests().complete(requestId, connected);
+        } else {
+            context.getPendingRequests().completeByKey(getConnectionKey(), connected);
         }
-
-        return connected;
     }
 
-    void provideIsConnected(boolean connected) {
-        this.connected = connected;
-        synchronized (isConnectionObj) {
-            isConnectionObj.notifyAll();
-        }
+    private String getConnectionKey() {
+        return "shard:" + shardId;
     }
 
 }
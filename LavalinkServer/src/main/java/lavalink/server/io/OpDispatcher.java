@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.io;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+import com.sedmelluq.discord.lavaplayer.tools.ExecutorTools;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs websocket ops off the websocket thread. Each guild is pinned to one single-threaded shard, so ops for a guild
+ * are still handled in the order they arrived, while different guilds are handled in parallel.
+ */
+public class OpDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(OpDispatcher.class);
+
+    // Weight of the latest sample in the dispatch latency average
+    private static final double LATENCY_SMOOTHING = 0.05;
+    // How long shutting down waits for queued ops, which may still be waiting on a response that will never come
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+    private final Shard[] shards;
+
+    OpDispatcher(int threads) {
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+
+        shards = new Shard[threads];
+        DaemonThreadFactory threadFactory = new DaemonThreadFactory("op-worker");
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory));
+        }
+    }
+
+    void dispatch(long guildId, Runnable op) {
+        Shard shard = shards[Math.floorMod(Long.hashCode(guildId), shards.length)];
+        long queuedAt = System.nanoTime();
+
+        shard.executor.execute(() -> {
+            shard.onStart(System.nanoTime() - queuedAt);
+            try {
+                op.run();
+            } catch (Exception e) {
+                log.error("Caught exception while handling op for guild " + guildId, e);
+            }
+        });
+    }
+
+    JSONArray getStats() {
+        JSONArray array = new JSONArray();
+        for (Shard shard : shards) {
+            JSONObject json = new JSONObject();
+            json.put("queued", shard.executor.getQueue().size());
+            json.put("dispatched", shard.dispatched.get());
+            json.put("dispatchLatency", shard.latencyAverage / 1000000d);
+            array.put(json);
+        }
+        return array;
+    }
+
+    /**
+     * Lets the workers finish the ops that are already queued, then stops them.
+     */
+    void shutdown() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT;
+        for (Shard shard : shards) {
+            if (!shard.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                log.warn("Dropping " + shard.executor.getQueue().size() + " ops that were not handled in time");
+            }
+            ExecutorTools.shutdownExecutor(shard.executor, "op worker");
+        }
+    }
+
+    private static class Shard {
+
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong dispatched = new AtomicLong();
+        // Only written by the shard's own thread. In nanoseconds
+        private volatile double latencyAverage = 0;
+
+        private Shard(ThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void onStart(long latency) {
+            dispatched.incrementAndGet();
+            latencyAverage += (latency - latencyAverage) * LATENCY_SMOOTHING;
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.io;
+
+import lavalink.server.jfr.ClientRequestEvent;
+import lavalink.server.jfr.Jfr;
+import lavalink.server.metrics.Metrics;
+import org.json.JSONObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests we have sent to the client and are awaiting a reply for. Every request is tagged with a "requestId" which
+ * the client echoes back, so any number of requests can be in flight and each is only completed by its own reply.
+ */
+class PendingRequests {
+
+    // Weight of the latest sample in the round trip average
+    private static final double RTT_SMOOTHING = 0.05;
+
+    private final SocketContext context;
+    private final AtomicLong idCounter = new AtomicLong();
+    private final ConcurrentHashMap<Long, Request> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    // Only written by the websocket thread, which handles all replies. In nanoseconds
+    private volatile double rttAverage = 0;
+    private volatile long rttMax = 0;
+
+    PendingRequests(SocketContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Sends the request and blocks until its reply arrives
+     *
+     * @param json the request to send. A "requestId" is added to it
+     * @param key what the request is about. Only used to match replies from clients that don't echo the request id
+     * @param timeout how long to wait for the reply, in milliseconds
+     * @return the value of the reply
+     */
+    boolean request(JSONObject json, String key, long timeout) {
+        long requestId = idCounter.incrementAndGet();
+        Request request = new Request(json.getString("op"), key);
+        pending.put(requestId, request);
+        json.put("requestId", requestId);
+
+        requestCount.incrementAndGet();
+        context.send(json);
+
+        ClientRequestEvent event = null;
+        if (Jfr.AVAILABLE) {
+            event = new ClientRequestEvent();
+            event.begin();
+        }
+
+        boolean timedOut = false;
+        try {
+            return request.future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timedOut = true;
+            timeoutCount.incrementAndGet();
+            throw new RuntimeException("Request " + json.getString("op") + " for " + key + " timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pending.remove(requestId);
+
+            if (event != null && event.shouldCommit()) {
+                event.op = request.op;
+                event.key = key;
+                event.timedOut = timedOut;
+                event.commit();
+            }
+        }
+    }
+
+    void complete(long requestId, boolean value) {
+        Request request = pending.get(requestId);
+        if (request != null) {
+            request.complete(value);
+        }
+    }
+
+    // Older clients don't echo the request id, so we complete everything that asked about the same thing
+    void completeByKey(String key, boolean value) {
+        pending.values().forEach(request -> {
+            if (request.key.equals(key)) {
+                request.complete(value);
+            }
+        });
+    }
+
+    JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        json.put("requests", requestCount.get());
+        json.put("timeouts", timeoutCount.get());
+        json.put("pending", pending.size());
+        json.put("avgRtt", rttAverage / 1000000d);
+        json.put("maxRtt", rttMax / 1000000d);
+        return json;
+    }
+
+    private class Request {
+
+        private final String op;
+        private final String key;
+        private final long sentAt = System.nanoTime();
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private Request(String op, String key) {
+            this.op = op;
+            this.key = key;
+        }
+
+        private void complete(boolean value) {
+            if (!future.complete(value)) return;
+
+            long rtt = System.nanoTime() - sentAt;
+            rttAverage += (rtt - rttAverage) * RTT_SMOOTHING;
+            if (rtt > rttMax) rttMax = rtt;
+            Metrics.CLIENT_REQUESTS.labels(op).observe(rtt / 1e9);
+        }
+    }
+
+}
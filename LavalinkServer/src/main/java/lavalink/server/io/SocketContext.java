@@ -26,76 +26,238 @@ import lavalink.server.Launcher;
 import lavalink.server.player.Player;
 import lavalink.server.util.Util;
 import net.dv8tion.jda.Core;
+import net.dv8tion.jda.manager.AudioManager;
 import org.java_websocket.WebSocket;
+import org.jctools.maps.NonBlockingHashMapLong;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class SocketContext {
 
     private static final Logger log = LoggerFactory.getLogger(SocketContext.class);
 
+    private static final int SHARD_UNKNOWN = 0;
+    private static final int SHARD_CONNECTED = 1;
+    private static final int SHARD_DISCONNECTED = 2;
+
+    private final SocketServer server;
     private final WebSocket socket;
+    private final WireFormat wireFormat;
+    private final PendingRequests pendingRequests = new PendingRequests(this);
+    private final ValidationCache validationCache = new ValidationCache(
+            Launcher.config.getValidation().getCacheTtl(),
+            Launcher.config.getValidation().getCacheSize()
+    );
     private int shardCount;
-    private final HashMap<Integer, Core> cores = new HashMap<>();
-    private final HashMap<String, Player> players = new HashMap<>();
-    private ScheduledExecutorService statsExecutor;
+    // Connection states pushed by the client with the shardState op. See SHARD_* above
+    private final AtomicIntegerArray shardStates;
+    // Indexed by shard id
+    private final AtomicReferenceArray<Core> cores;
+    // Keyed by guild id
+    private final NonBlockingHashMapLong<Player> players = new NonBlockingHashMapLong<>();
+
+    private final AtomicLong reapedPlayers = new AtomicLong();
+    private final AtomicLong destroyedPlayers = new AtomicLong();
+    // Set when the websocket closes. Ops still queued for this connection are dropped from then on
+    private volatile boolean closed = false;
 
-    SocketContext(WebSocket socket, int shardCount) {
+    SocketContext(SocketServer server, WebSocket socket, WireFormat wireFormat, int shardCount) {
+        this.server = server;
         this.socket = socket;
+        this.wireFormat = wireFormat;
         this.shardCount = shardCount;
-
-        statsExecutor = Executors.newSingleThreadScheduledExecutor();
-        statsExecutor.scheduleAtFixedRate(new StatsTask(this), 0, 1, TimeUnit.MINUTES);
+        this.shardStates = new AtomicIntegerArray(shardCount);
+        this.cores = new AtomicReferenceArray<>(shardCount);
     }
 
     Core getCore(int shardId) {
-        return cores.computeIfAbsent(shardId,
-                __ -> new Core(Launcher.config.getUserId(), new CoreClientImpl(socket, shardId))
-        );
+        Core core = cores.get(shardId);
+        if (core != null) return core;
+
+        // Cores are created once per shard, so only the first lookups ever get here. Building a Core sets up JDA-Audio
+        // state, so make sure only one is ever built rather than letting racing threads throw theirs away
+        synchronized (cores) {
+            core = cores.get(shardId);
+            if (core == null) {
+                core = new Core(Launcher.config.getUserId(), new CoreClientImpl(this, shardId));
+                cores.set(shardId, core);
+            }
+            return core;
+        }
+    }
+
+    Player getPlayer(long guildId) {
+        Player player = players.get(guildId);
+        if (player != null) return player;
+
+        // Ops for a guild are handled in order by a single worker, so we'll rarely race here
+        player = new Player(this, guildId);
+        Player existing = players.putIfAbsent(guildId, player);
+        return existing != null ? existing : player;
+    }
+
+    /**
+     * Removes the player and frees its resources. A new player is created if the guild is used again.
+     *
+     * @return false if there was no player for the guild
+     */
+    boolean destroyPlayer(long guildId) {
+        Player player = players.remove(guildId);
+        if (player == null) return false;
+
+        AudioManager manager = getCore(Util.getShardFromSnowflake(guildId, shardCount))
+                .getAudioManager(player.getGuildId());
+        if (manager.getSendingHandler() == player) {
+            manager.setSendingHandler(null);
+        }
+
+        player.destroy();
+        destroyedPlayers.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Destroys players that have been stopped or disconnected for longer than the idle timeout
+     */
+    void reapIdlePlayers(long idleTimeout) {
+        long now = System.currentTimeMillis();
+
+        for (Player player : players.values()) {
+            // Checking the connection touches the guild's AudioManager, so all of this is done by the guild's own
+            // worker, in order with its ops
+            long guildId = player.getGuildIdLong();
+            server.getDispatcher().dispatch(guildId, () -> {
+                if (players.get(guildId) != player) return;
+
+                if (!isIdle(player)) {
+                    player.setIdleSince(-1);
+                } else if (player.getIdleSince() == -1) {
+                    player.setIdleSince(now);
+                } else if (now - player.getIdleSince() >= idleTimeout && destroyPlayer(guildId)) {
+                    reapedPlayers.incrementAndGet();
+                    log.debug("Reaped idle player for guild " + player.getGuildId());
+
+                    // The client still believes in the volume and pause state of this player, so tell it to reset
+                    JSONObject json = new JSONObject();
+                    json.put("op", "event");
+                    json.put("type", "PlayerDestroyedEvent");
+                    json.put("guildId", player.getGuildId());
+                    send(json);
+                }
+            });
+        }
+    }
+
+    private boolean isIdle(Player player) {
+        if (player.getPlayingTrack() == null) return true;
+
+        Core core = cores.get(Util.getShardFromSnowflake(player.getGuildIdLong(), shardCount));
+        if (core == null) return true;
+
+        AudioManager manager = core.getAudioManager(player.getGuildId());
+        return !manager.isConnected() && !manager.isAttemptingToConnect();
     }
 
-    Player getPlayer(String guildId) {
-        return players.computeIfAbsent(guildId,
-                __ -> new Player(this, guildId)
-        );
+    JSONObject getReaperStats() {
+        JSONObject json = new JSONObject();
+        json.put("reaped", reapedPlayers.get());
+        json.put("destroyed", destroyedPlayers.get());
+        return json;
+    }
+
+    void setShardConnected(int shardId, boolean connected) {
+        shardStates.set(shardId, connected ? SHARD_CONNECTED : SHARD_DISCONNECTED);
+    }
+
+    /**
+     * @return the connection state last pushed by the client, or null if the client never pushed it
+     */
+    Boolean isShardConnected(int shardId) {
+        switch (shardStates.get(shardId)) {
+            case SHARD_CONNECTED:
+                return true;
+            case SHARD_DISCONNECTED:
+                return false;
+            default:
+                return null;
+        }
     }
 
     public int getShardCount() {
         return shardCount;
     }
 
+    SocketServer getServer() {
+        return server;
+    }
+
     public WebSocket getSocket() {
         return socket;
     }
 
-    public HashMap<String, Player> getPlayers() {
-        return players;
+    PendingRequests getPendingRequests() {
+        return pendingRequests;
+    }
+
+    ValidationCache getValidationCache() {
+        return validationCache;
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public void send(JSONObject json) {
+        wireFormat.send(socket, json);
+    }
+
+    public Collection<Player> getPlayers() {
+        return players.values();
     }
 
     public List<Player> getPlayingPlayers() {
-        List<Player> newList = new LinkedList<>();
+        List<Player> newList = new ArrayList<>();
         players.values().forEach(player -> {
             if(player.isPlaying()) newList.add(player);
         });
         return newList;
     }
 
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Tears down every player. The teardown of each guild is queued behind the ops that are already waiting for it,
+     * which are dropped once they see that this context is closed.
+     */
     void shutdown() {
-        log.info("Shutting down " + cores.size() + " cores and " + getPlayingPlayers().size() + " playing players.");
-        statsExecutor.shutdown();
-        players.keySet().forEach(s -> {
-            Core core = cores.get(Util.getShardFromSnowflake(s, shardCount));
-            core.getAudioManager(s).closeAudioConnection();
-        });
+        closed = true;
+
+        int coreCount = 0;
+        for (int i = 0; i < cores.length(); i++) {
+            if (cores.get(i) != null) coreCount++;
+        }
+
+        log.info("Shutting down " + coreCount + " cores and " + getPlayingPlayers().size() + " playing players.");
+        for (Player player : players.values()) {
+            long guildId = player.getGuildIdLong();
+            server.getDispatcher().dispatch(guildId, () -> {
+                if (!players.remove(guildId, player)) return;
 
-        players.values().forEach(Player::stop);
+                Core core = cores.get(Util.getShardFromSnowflake(guildId, shardCount));
+                if (core != null) core.getAudioManager(player.getGuildId()).closeAudioConnection();
+                player.destroy();
+            });
+        }
     }
 
 }
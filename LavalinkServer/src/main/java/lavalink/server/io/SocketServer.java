@@ -22,19 +22,37 @@
 
 package lavalink.server.io;
 
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+import com.sedmelluq.discord.lavaplayer.tools.ExecutorTools;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.server.Config;
+import lavalink.server.Launcher;
+import lavalink.server.jfr.Jfr;
+import lavalink.server.jfr.WebSocketOpEvent;
+import lavalink.server.metrics.Metrics;
 import lavalink.server.player.Player;
+import lavalink.server.util.DecodedTrackCache;
 import lavalink.server.util.Util;
 import net.dv8tion.jda.manager.AudioManager;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.server.WebSocketServer;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 import static lavalink.server.io.WSCodes.AUTHORIZATION_REJECTED;
 import static lavalink.server.io.WSCodes.INTERNAL_ERROR;
@@ -42,21 +60,66 @@ import static lavalink.server.io.WSCodes.INTERNAL_ERROR;
 public class SocketServer extends WebSocketServer {
 
     private static final Logger log = LoggerFactory.getLogger(SocketServer.class);
-    private static final Map<WebSocket, SocketContext> contextMap = new HashMap<>();
+    private static final Map<WebSocket, SocketContext> contextMap = new ConcurrentHashMap<>();
     private final String password;
+    private final OpDispatcher dispatcher;
+    // Node-wide periodic tasks, shared by all connections
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("scheduler"));
+    private final StatsTask statsTask = new StatsTask(this);
 
-    public SocketServer(String password) {
-        this.password = password;
+    public SocketServer(Config config) {
+        this.password = config.getPassword();
+        this.dispatcher = new OpDispatcher(config.getOpWorkers());
+
+        long statsInterval = Math.max(1, config.getStatsInterval());
+        scheduler.scheduleAtFixedRate(statsTask, 0, statsInterval, TimeUnit.SECONDS);
+
+        long idleTimeout = TimeUnit.SECONDS.toMillis(config.getPlayerIdleTimeout());
+        if (idleTimeout > 0) {
+            long interval = Math.max(1000, Math.min(60000, idleTimeout / 4));
+            scheduler.scheduleAtFixedRate(
+                    () -> contextMap.values().forEach(context -> context.reapIdlePlayers(idleTimeout)),
+                    interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        super.stop(timeout);
+
+        ExecutorTools.shutdownExecutor(scheduler, "scheduler");
+        // No more ops can arrive, so let the workers finish what is queued
+        dispatcher.shutdown();
+    }
+
+    @Override
+    public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft,
+                                                                       ClientHandshake request) throws InvalidDataException {
+        ServerHandshakeBuilder builder = super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+
+        // Let the client know that we accepted its requested wire format
+        WireFormat wireFormat = WireFormat.fromHeader(request.getFieldValue(WireFormat.HEADER));
+        if (wireFormat != WireFormat.JSON) {
+            builder.put(WireFormat.HEADER, wireFormat.getHeaderValue());
+        }
+
+        return builder;
     }
 
     @Override
     public void onOpen(WebSocket webSocket, ClientHandshake clientHandshake) {
         try {
             int shardCount = Integer.parseInt(clientHandshake.getFieldValue("Num-Shards"));
+            WireFormat wireFormat = WireFormat.fromHeader(clientHandshake.getFieldValue(WireFormat.HEADER));
 
             if (clientHandshake.getFieldValue("Authorization").equals(password)) {
-                log.info("Connection opened from " + webSocket.getRemoteSocketAddress() + " with protocol " + webSocket.getDraft());
-                contextMap.put(webSocket, new SocketContext(webSocket, shardCount));
+                log.info("Connection opened from " + webSocket.getRemoteSocketAddress() + " with protocol "
+                        + webSocket.getDraft() + " and wire format " + wireFormat);
+                SocketContext context = new SocketContext(this, webSocket, wireFormat, shardCount);
+                contextMap.put(webSocket, context);
+                // Don't make new clients wait a whole interval for their first stats
+                statsTask.sendLastStats(context);
             } else {
                 log.error("Authentication failed from " + webSocket.getRemoteSocketAddress() + " with protocol " + webSocket.getDraft());
                 webSocket.close(AUTHORIZATION_REJECTED, "Authorization rejected");
@@ -80,14 +143,131 @@ public class SocketServer extends WebSocketServer {
 
         log.info(s);
 
+        handleMessage(webSocket, json);
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, ByteBuffer message) {
+        JSONObject json;
+        try {
+            json = WireFormat.unpack(message);
+        } catch (IOException e) {
+            log.error("Received malformed binary message from " + webSocket.getRemoteSocketAddress(), e);
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(json.toString());
+        }
+
+        handleMessage(webSocket, json);
+    }
+
+    private void handleMessage(WebSocket webSocket, JSONObject json) {
         if (webSocket.isClosing()) {
             log.error("Ignoring closing websocket: " + webSocket.getRemoteSocketAddress().toString());
         }
 
+        SocketContext context = contextMap.get(webSocket);
+        String op = json.getString("op");
+
+        switch (op) {
+            /* Responses to our own requests and shard states. These can't be queued, as a worker may be blocking on them */
+            case "validationRes":
+            case "isConnectedRes":
+            case "shardState":
+                runTimed(op, json, () -> handleDirectOp(context, json));
+                break;
+            default:
+                if (!json.has("guildId")) {
+                    log.warn("Unexpected operation: " + op);
+                    return;
+                }
+
+                // Parsed once here and passed along, rather than on every lookup
+                long guildId = Long.parseLong(json.getString("guildId"));
+                dispatcher.dispatch(guildId, () -> {
+                    // Don't recreate players or cores for a connection that has already been torn down
+                    if (context.isClosed()) return;
+
+                    runTimed(op, json, () -> handleGuildOp(context, json, guildId));
+                });
+        }
+    }
+
+    /**
+     * Records the op's metrics and flight recorder event on the thread that handles it
+     *
+     * @param handler returns false if the op is unknown, which is then not recorded
+     */
+    private static void runTimed(String op, JSONObject json, BooleanSupplier handler) {
+        long start = System.nanoTime();
+        WebSocketOpEvent event = null;
+        if (Jfr.AVAILABLE) {
+            event = new WebSocketOpEvent();
+            event.begin();
+        }
+
+        if (!handler.getAsBoolean()) return;
+
+        Metrics.observeSince(Metrics.WS_OPS, op, start);
+        if (event != null && event.shouldCommit()) {
+            event.op = op;
+            event.guildId = json.optString("guildId", null);
+            event.commit();
+        }
+    }
+
+    private boolean handleDirectOp(SocketContext context, JSONObject json) {
+        switch (json.getString("op")) {
+            case "validationRes":
+                ((CoreClientImpl) context.getCore(getShardId(context, json)).getClient()).provideValidation(
+                        json.optLong("requestId", -1),
+                        json.getString("guildId"),
+                        json.optString("channelId", null),
+                        json.getBoolean("valid")
+                );
+                return true;
+            case "isConnectedRes":
+                ((CoreClientImpl) context.getCore(json.getInt("shardId")).getClient()).provideIsConnected(
+                        json.optLong("requestId", -1),
+                        json.getBoolean("connected")
+                );
+                return true;
+            case "shardState":
+                int shardId = json.getInt("shardId");
+                if (shardId < 0 || shardId >= context.getShardCount()) {
+                    log.warn("Received state for shard " + shardId + " which is out of bounds");
+                    return true;
+                }
+
+                context.setShardConnected(shardId, json.getBoolean("connected"));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return false if the op is unknown
+     */
+    private boolean handleGuildOp(SocketContext context, JSONObject json, long guildId) {
+        int shardId = Util.getShardFromSnowflake(guildId, context.getShardCount());
+
         switch (json.getString("op")) {
             /* JDAA ops */
             case "connect":
-                AudioManager manager = contextMap.get(webSocket).getCore(getShardId(webSocket, json))
+                if (json.has("permissions")) {
+                    // The client already checked the channel, so JDA-Audio doesn't need to ask for it
+                    context.getValidationCache().putPrechecked(json.getString("guildId"), json.getString("channelId"),
+                            json.getLong("permissions"), Launcher.config.getValidation().getTrustWindow());
+                } else {
+                    // Make sure we don't trust stale results for the guild or the channel we are joining
+                    context.getValidationCache().invalidate(json.getString("guildId"));
+                    context.getValidationCache().invalidate(json.getString("channelId"));
+                }
+
+                AudioManager manager = context.getCore(shardId)
                         .getAudioManager(json.getString("guildId"));
 
                 if (manager.isConnected() || manager.isAttemptingToConnect()) {
@@ -99,65 +279,57 @@ public class SocketServer extends WebSocketServer {
                 manager.openAudioConnection(json.getString("channelId"));
                 break;
             case "voiceUpdate":
-                contextMap.get(webSocket).getCore(getShardId(webSocket, json)).provideVoiceServerUpdate(
+                context.getCore(shardId).provideVoiceServerUpdate(
                         json.getString("sessionId"),
                         json.getJSONObject("event")
                 );
                 break;
             case "disconnect":
-                contextMap.get(webSocket).getCore(getShardId(webSocket, json)).getAudioManager(json.getString("guildId"))
+                context.getValidationCache().invalidateGuild(json.getString("guildId"));
+                context.getCore(shardId).getAudioManager(json.getString("guildId"))
                         .closeAudioConnection();
                 break;
-            case "validationRes":
-                ((CoreClientImpl) contextMap.get(webSocket).getCore(getShardId(webSocket, json)).getClient()).provideValidation(
-                        json.getString("guildId"),
-                        json.optString("channelId"),
-                        json.getBoolean("valid")
-                );
-                break;
-            case "isConnectedRes":
-                ((CoreClientImpl) contextMap.get(webSocket).getCore(json.getInt("shardId")).getClient()).provideIsConnected(
-                        json.getBoolean("connected")
-                );
-                break;
 
             /* Player ops */
             case "play":
                 try {
-                    Player player = contextMap.get(webSocket).getPlayer(json.getString("guildId"));
-                    player.play(Util.toAudioTrack(json.getString("track")));
+                    Player player = context.getPlayer(guildId);
+                    player.play(readTrack(json));
 
-                    SocketContext context = contextMap.get(webSocket);
-
-                    context.getCore(getShardId(webSocket, json)).getAudioManager(json.getString("guildId"))
-                            .setSendingHandler(context.getPlayer(json.getString("guildId")));
-                    sendPlayerUpdate(webSocket, player);
+                    context.getCore(shardId).getAudioManager(json.getString("guildId"))
+                            .setSendingHandler(player);
+                    sendPlayerUpdate(context, player);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
                 break;
             case "stop":
-                Player player = contextMap.get(webSocket).getPlayer(json.getString("guildId"));
+                Player player = context.getPlayer(guildId);
                 player.stop();
                 break;
             case "pause":
-                Player player2 = contextMap.get(webSocket).getPlayer(json.getString("guildId"));
+                Player player2 = context.getPlayer(guildId);
                 player2.setPause(json.getBoolean("pause"));
-                sendPlayerUpdate(webSocket, player2);
+                sendPlayerUpdate(context, player2);
                 break;
             case "seek":
-                Player player3 = contextMap.get(webSocket).getPlayer(json.getString("guildId"));
+                Player player3 = context.getPlayer(guildId);
                 player3.seekTo(json.getLong("position"));
-                sendPlayerUpdate(webSocket, player3);
+                sendPlayerUpdate(context, player3);
                 break;
             case "volume":
-                Player player4 = contextMap.get(webSocket).getPlayer(json.getString("guildId"));
+                Player player4 = context.getPlayer(guildId);
                 player4.setVolume(json.getInt("volume"));
                 break;
+            case "destroy":
+                context.destroyPlayer(guildId);
+                break;
             default:
                 log.warn("Unexpected operation: " + json.getString("op"));
-                break;
+                return false;
         }
+
+        return true;
     }
 
     @Override
@@ -170,18 +342,35 @@ public class SocketServer extends WebSocketServer {
         log.info("Started WS server");
     }
 
-    public static void sendPlayerUpdate(WebSocket webSocket, Player player) {
+    public static void sendPlayerUpdate(SocketContext context, Player player) {
         JSONObject json = new JSONObject();
         json.put("op", "playerUpdate");
         json.put("guildId", player.getGuildId());
         json.put("state", player.getState());
 
-        webSocket.send(json.toString());
+        context.send(json);
+    }
+
+    // Binary clients send the raw track, JSON clients send it base64 encoded
+    private static AudioTrack readTrack(JSONObject json) throws IOException {
+        Object track = json.get("track");
+        if (track instanceof byte[]) {
+            return DecodedTrackCache.INSTANCE.decode((byte[]) track);
+        }
+        return DecodedTrackCache.INSTANCE.decode(json.getString("track"));
     }
 
     //Shorthand method
-    private int getShardId(WebSocket webSocket, JSONObject json) {
-        return Util.getShardFromSnowflake(json.getString("guildId"), contextMap.get(webSocket).getShardCount());
+    private int getShardId(SocketContext context, JSONObject json) {
+        return Util.getShardFromSnowflake(json.getString("guildId"), context.getShardCount());
+    }
+
+    public static Collection<SocketContext> getContexts() {
+        return contextMap.values();
+    }
+
+    OpDispatcher getDispatcher() {
+        return dispatcher;
     }
 
 }
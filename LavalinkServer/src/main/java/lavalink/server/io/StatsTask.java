@@ -23,82 +23,183 @@
 package lavalink.server.io;
 
 import lavalink.server.Launcher;
+import lavalink.server.nio.NioAudioSendFactory;
 import lavalink.server.player.AudioLossCounter;
 import lavalink.server.player.Player;
+import lavalink.server.player.TrackLoadCache;
+import lavalink.server.util.DecodedTrackCache;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import oshi.SystemInfo;
-import oshi.hardware.HardwareAbstractionLayer;
+import oshi.hardware.CentralProcessor;
 import oshi.software.os.OSProcess;
 import oshi.software.os.OperatingSystem;
 
+/**
+ * Samples the node once per interval and sends the same snapshot to every connected client, together with the stats
+ * of that client's own players.
+ */
 public class StatsTask implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(StatsTask.class);
 
-    private SocketContext context;
+    private static final int[] FRAME_STAT_WINDOWS = {5, 30, 60}; // seconds
+
+    private final SocketServer server;
+    private final CentralProcessor processor;
+    private final OperatingSystem os;
+
+    // The previous sample, so that CPU load is measured over the interval rather than since startup
+    private long[] lastTicks = null;
+    private long lastProcessTime = -1;
+    private long lastSampleTime = -1;
+
+    private volatile JSONObject lastMemory = null;
+    private volatile JSONObject lastCpu = null;
 
-    StatsTask(SocketContext context) {
-        this.context = context;
+    StatsTask(SocketServer server) {
+        this.server = server;
+        SystemInfo si = new SystemInfo();
+        this.processor = si.getHardware().getProcessor();
+        this.os = si.getOperatingSystem();
     }
 
     @Override
     public void run() {
-        log.info("Sending stats");
+        // An exception would stop this from being scheduled again
+        try {
+            lastMemory = sampleMemory();
+            lastCpu = sampleCpu();
+
+            log.info("Sending stats to " + SocketServer.getContexts().size() + " clients");
+            SocketServer.getContexts().forEach(this::sendLastStats);
+        } catch (Exception e) {
+            log.error("Failed to send stats", e);
+        }
+    }
+
+    /**
+     * Sends the most recent node snapshot to the client. Does nothing if no snapshot has been taken yet.
+     */
+    void sendLastStats(SocketContext context) {
+        JSONObject memory = lastMemory;
+        JSONObject cpu = lastCpu;
+        if (memory == null || cpu == null) return;
 
         JSONObject out = new JSONObject();
         out.put("op", "stats");
         out.put("players", context.getPlayers().size());
         out.put("playingPlayers", context.getPlayingPlayers().size());
         out.put("uptime", System.currentTimeMillis() - Launcher.startTime);
+        out.put("memory", memory);
+        out.put("cpu", cpu);
+
+        JSONObject frames = getFrameStats(context, AudioLossCounter.MAX_WINDOW);
+        if (frames != null) out.put("frameStats", frames);
+
+        JSONObject windows = new JSONObject();
+        for (int window : FRAME_STAT_WINDOWS) {
+            JSONObject windowFrames = getFrameStats(context, window);
+            if (windowFrames != null) windows.put(Integer.toString(window), windowFrames);
+        }
+        out.put("frameStatsWindows", windows);
+
+        out.put("opWorkers", server.getDispatcher().getStats());
+        out.put("clientRequests", context.getPendingRequests().getStats());
+        out.put("validationCache", context.getValidationCache().getStats());
+        out.put("reaper", context.getReaperStats());
+        out.put("decodedTrackCache", DecodedTrackCache.INSTANCE.getStats());
+        out.put("loadCache", TrackLoadCache.INSTANCE.getStats());
+
+        NioAudioSendFactory nioSendFactory = Launcher.nioSendFactory;
+        if (nioSendFactory != null) out.put("nioSend", nioSendFactory.getStats());
+
+        context.send(out);
+    }
 
+    private static JSONObject sampleMemory() {
         // In bytes
         JSONObject mem = new JSONObject();
         mem.put("free", Runtime.getRuntime().freeMemory());
         mem.put("used", Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
         mem.put("allocated", Runtime.getRuntime().totalMemory());
         mem.put("reservable", Runtime.getRuntime().maxMemory());
-        out.put("memory", mem);
-
-        SystemInfo si = new SystemInfo();
-        HardwareAbstractionLayer hal = si.getHardware();
-        OperatingSystem os = si.getOperatingSystem();
+        return mem;
+    }
 
+    /**
+     * Both loads are between 0 and 1, as a fraction of all cores, averaged since the previous sample
+     */
+    private JSONObject sampleCpu() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long now = System.currentTimeMillis();
+        long[] ticks = processor.getSystemCpuLoadTicks();
         OSProcess p = os.getProcess(os.getProcessId());
+        long processTime = p.getKernelTime() + p.getUserTime();
+
+        double systemLoad;
+        double lavalinkLoad;
+        if (lastTicks == null || now <= lastSampleTime) {
+            // Nothing to compare with yet
+            systemLoad = processor.getSystemCpuLoad();
+            lavalinkLoad = (double) processTime / Math.max(1, p.getUpTime()) / cores;
+        } else {
+            systemLoad = getLoadBetween(lastTicks, ticks);
+            lavalinkLoad = (double) (processTime - lastProcessTime) / (now - lastSampleTime) / cores;
+        }
+
+        lastTicks = ticks;
+        lastProcessTime = processTime;
+        lastSampleTime = now;
 
         JSONObject cpu = new JSONObject();
-        cpu.put("cores", Runtime.getRuntime().availableProcessors());
-        cpu.put("systemLoad", hal.getProcessor().getSystemCpuLoad());
-        cpu.put("lavalinkLoad", (p.getKernelTime() + p.getUserTime()) / p.getUpTime());
-        out.put("cpu", cpu);
+        cpu.put("cores", cores);
+        cpu.put("systemLoad", systemLoad);
+        cpu.put("lavalinkLoad", Math.min(1d, Math.max(0d, lavalinkLoad)));
+        return cpu;
+    }
 
+    private static double getLoadBetween(long[] previous, long[] current) {
+        long total = 0;
+        for (int i = 0; i < current.length; i++) {
+            total += current[i] - previous[i];
+        }
+
+        long idle = current[CentralProcessor.TickType.IDLE.getIndex()] - previous[CentralProcessor.TickType.IDLE.getIndex()]
+                + current[CentralProcessor.TickType.IOWAIT.getIndex()] - previous[CentralProcessor.TickType.IOWAIT.getIndex()];
+
+        return total <= 0 ? 0d : (double) (total - idle) / total;
+    }
+
+    /**
+     * @return the average frames per playing player over the window, or null if no player has usable data
+     */
+    private static JSONObject getFrameStats(SocketContext context, int seconds) {
         int totalSent = 0;
         int totalNulled = 0;
+        int totalDeficit = 0;
         int players = 0;
 
         for (Player player : context.getPlayingPlayers()) {
             AudioLossCounter counter = player.getAudioLossCounter();
-            if (!counter.isDataUsable()) continue;
+            if (!counter.isDataUsable(seconds)) continue;
 
+            AudioLossCounter.Window window = counter.getWindow(seconds);
             players++;
-            totalSent += counter.getLastMinuteSuccess();
-            totalNulled += counter.getLastMinuteLoss();
+            totalSent += window.getSuccess();
+            totalNulled += window.getLoss();
+            totalDeficit += window.getDeficit();
         }
 
-        int totalDeficit = players * AudioLossCounter.EXPECTED_PACKET_COUNT_PER_MIN
-                - (totalSent + totalNulled);
-
         // We can't divide by 0
-        if (players != 0) {
-            JSONObject frames = new JSONObject();
-            frames.put("sent", totalSent / players);
-            frames.put("nulled", totalNulled / players);
-            frames.put("deficit", totalDeficit / players);
-            out.put("frameStats", frames);
-        }
+        if (players == 0) return null;
 
-        context.getSocket().send(out.toString());
+        JSONObject frames = new JSONObject();
+        frames.put("sent", totalSent / players);
+        frames.put("nulled", totalNulled / players);
+        frames.put("deficit", totalDeficit / players);
+        return frames;
     }
 
 }
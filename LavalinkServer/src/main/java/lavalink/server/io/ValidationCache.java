@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.io;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of guild and channel validation requests, so that JDA-Audio doesn't need a round trip to the
+ * client for every check. Entries expire after a TTL, and the least recently used entries are evicted once the cache
+ * is full.
+ */
+class ValidationCache {
+
+    private static final long UNKNOWN_PERMISSIONS = -1;
+
+    private final long ttl;
+    private final int maxSize;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param ttl how long results are kept, in seconds
+     * @param maxSize the maximum number of results kept
+     */
+    ValidationCache(long ttl, int maxSize) {
+        this.ttl = TimeUnit.SECONDS.toMillis(ttl);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= ValidationCache.this.maxSize) return false;
+
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return the cached result for a guild or channel, or null if we have to ask the client
+     */
+    synchronized Boolean get(String guildOrChannelId) {
+        Entry entry = getEntry(guildOrChannelId);
+        return entry == null ? null : entry.valid;
+    }
+
+    /**
+     * @return whether we have the given permissions in the channel, or null if we have to ask the client
+     */
+    synchronized Boolean hasPermission(String channelId, long permission) {
+        Entry entry = getEntry(channelId);
+        if (entry == null) return null;
+
+        // Results from validationRes only tell us whether we may connect and speak
+        return entry.permissions == UNKNOWN_PERMISSIONS ? entry.valid : (entry.permissions & permission) == permission;
+    }
+
+    /**
+     * A failed channel check only tells us about that channel, so it is never stored for the guild. A successful one
+     * means we are in the guild.
+     *
+     * @param guildId the guild that the result is for, or that owns the channel
+     * @param channelId the channel the result is for, or null if this is only about the guild
+     */
+    synchronized void put(String guildId, String channelId, boolean valid) {
+        long expiresAt = System.currentTimeMillis() + ttl;
+        if (channelId == null || valid) {
+            entries.put(guildId, new Entry(guildId, valid, UNKNOWN_PERMISSIONS, expiresAt));
+        }
+        if (channelId != null) {
+            entries.put(channelId, new Entry(guildId, valid, UNKNOWN_PERMISSIONS, expiresAt));
+        }
+    }
+
+    /**
+     * Stores permissions that the client checked before sending a connect op. The client knows we are in the guild,
+     * and that the channel exists. These are only trusted for a short while, as the client won't tell us if they change.
+     *
+     * @param permissions the effective permission bits we have in the channel
+     * @param trustWindow how long to trust the permissions, in seconds
+     */
+    synchronized void putPrechecked(String guildId, String channelId, long permissions, long trustWindow) {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(trustWindow);
+        entries.put(guildId, new Entry(guildId, true, UNKNOWN_PERMISSIONS, expiresAt));
+        entries.put(channelId, new Entry(guildId, true, permissions, expiresAt));
+    }
+
+    synchronized void invalidate(String guildOrChannelId) {
+        entries.remove(guildOrChannelId);
+    }
+
+    /**
+     * Invalidates the result for the guild and all of its channels
+     */
+    synchronized void invalidateGuild(String guildId) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().guildId.equals(guildId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private Entry getEntry(String guildOrChannelId) {
+        Entry entry = entries.get(guildOrChannelId);
+
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(guildOrChannelId);
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+    JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        synchronized (this) {
+            json.put("size", entries.size());
+        }
+        json.put("hits", hits.get());
+        json.put("misses", misses.get());
+        json.put("evictions", evictions.get());
+        return json;
+    }
+
+    private static class Entry {
+
+        private final String guildId;
+        private final boolean valid;
+        private final long permissions;
+        private final long expiresAt;
+
+        private Entry(String guildId, boolean valid, long permissions, long expiresAt) {
+            this.guildId = guildId;
+            this.valid = valid;
+            this.permissions = permissions;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
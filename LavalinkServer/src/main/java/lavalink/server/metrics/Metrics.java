@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.metrics;
+
+import io.prometheus.client.Histogram;
+import io.prometheus.client.hotspot.DefaultExports;
+import lavalink.server.nas.NativeAudioSendFactory;
+import lavalink.server.nio.NioAudioSendFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Metrics exposed on /metrics. The histograms are updated where the work happens, the gauges are computed when scraped.
+ */
+public final class Metrics {
+
+    private static final AtomicBoolean initialized = new AtomicBoolean(false);
+
+    public static final Histogram WS_OPS = Histogram.build()
+            .name("lavalink_ws_op_seconds")
+            .help("Time spent handling websocket ops")
+            .labelNames("op")
+            .buckets(0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5)
+            .register();
+
+    public static final Histogram TRACK_LOADS = Histogram.build()
+            .name("lavalink_track_load_seconds")
+            .help("Time taken to load tracks, by the source of the first track")
+            .labelNames("source")
+            .buckets(0.001, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .register();
+
+    public static final Histogram CLIENT_REQUESTS = Histogram.build()
+            .name("lavalink_client_request_seconds")
+            .help("Round trip time of requests sent to clients")
+            .labelNames("op")
+            .buckets(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 5)
+            .register();
+
+    static final Histogram GC_PAUSES = Histogram.build()
+            .name("lavalink_gc_pause_seconds")
+            .help("Duration of garbage collections")
+            .labelNames("gc", "action")
+            .buckets(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 5)
+            .register();
+
+    private Metrics() {
+    }
+
+    static void init() {
+        if (!initialized.compareAndSet(false, true)) return;
+
+        DefaultExports.initialize();
+        new PlayerCollector().register();
+        GcPauseListener.register();
+    }
+
+    /**
+     * Exposes the queues of the native audio send factory
+     */
+    public static void register(NativeAudioSendFactory factory) {
+        new NasCollector(factory).register();
+    }
+
+    /**
+     * Exposes the packets sent and dropped by the non-blocking audio send factory
+     */
+    public static void register(NioAudioSendFactory factory) {
+        new NioCollector(factory).register();
+    }
+
+    public static void observeSince(Histogram histogram, String label, long startNanos) {
+        histogram.labels(label).observe((System.nanoTime() - startNanos) / 1e9);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.metrics;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import lavalink.server.nas.NativeAudioSendFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How full the native UDP queues are. Full queues mean audio is buffered ahead, empty queues mean it is running late.
+ */
+class NasCollector extends Collector {
+
+    private final NativeAudioSendFactory factory;
+
+    NasCollector(NativeAudioSendFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        NativeAudioSendFactory.QueueStats stats = factory.getQueueStats();
+
+        List<MetricFamilySamples> samples = new ArrayList<>();
+        samples.add(new GaugeMetricFamily("lavalink_nas_queues", "Native UDP queues", stats.getQueues()));
+        samples.add(new GaugeMetricFamily("lavalink_nas_queued_packets", "Packets waiting in native UDP queues",
+                stats.getQueuedPackets()));
+        samples.add(new GaugeMetricFamily("lavalink_nas_queue_capacity", "Packets that native UDP queues can hold",
+                stats.getCapacity()));
+        samples.add(new GaugeMetricFamily("lavalink_nas_empty_queues", "Native UDP queues that have run dry",
+                stats.getEmptyQueues()));
+
+        List<String> labels = Collections.singletonList("shard");
+        GaugeMetricFamily systems = new GaugeMetricFamily("lavalink_nas_shard_systems",
+                "Send systems handled by each populator shard", labels);
+        GaugeMetricFamily lastPass = new GaugeMetricFamily("lavalink_nas_shard_last_pass_seconds",
+                "Duration of the last populator pass", labels);
+        GaugeMetricFamily averagePass = new GaugeMetricFamily("lavalink_nas_shard_average_pass_seconds",
+                "Smoothed duration of populator passes", labels);
+        GaugeMetricFamily backlog = new GaugeMetricFamily("lavalink_nas_shard_backlog",
+                "Free queue slots the last populator pass had to fill", labels);
+        GaugeMetricFamily parked = new GaugeMetricFamily("lavalink_nas_shard_parked_systems",
+                "Send systems whose idle players the last populator pass skipped", labels);
+        CounterMetricFamily overruns = new CounterMetricFamily("lavalink_nas_shard_overruns",
+                "Populator passes that took longer than the populate interval", labels);
+
+        for (NativeAudioSendFactory.ShardStats shard : factory.getShardStats()) {
+            List<String> shardLabel = Collections.singletonList(Integer.toString(shard.getIndex()));
+            systems.addMetric(shardLabel, shard.getSystems());
+            lastPass.addMetric(shardLabel, shard.getLastPass() / 1000d);
+            averagePass.addMetric(shardLabel, shard.getAveragePass() / 1000d);
+            backlog.addMetric(shardLabel, shard.getBacklog());
+            parked.addMetric(shardLabel, shard.getParked());
+            overruns.addMetric(shardLabel, shard.getOverruns());
+        }
+
+        samples.add(systems);
+        samples.add(lastPass);
+        samples.add(averagePass);
+        samples.add(backlog);
+        samples.add(parked);
+        samples.add(overruns);
+        return samples;
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.metrics;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import lavalink.server.nio.NioAudioSendFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packets of the non-blocking send factory. Dropped packets are ones the datagram channel had no room for.
+ */
+class NioCollector extends Collector {
+
+    private final NioAudioSendFactory factory;
+
+    NioCollector(NioAudioSendFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples> samples = new ArrayList<>();
+        samples.add(new CounterMetricFamily("lavalink_nio_sent_packets", "Packets sent through nio",
+                factory.getSentPackets()));
+        samples.add(new CounterMetricFamily("lavalink_nio_dropped_packets", "Packets nio couldn't send",
+                factory.getDroppedPackets()));
+        return samples;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.metrics;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+import lavalink.server.io.SocketContext;
+import lavalink.server.io.SocketServer;
+import lavalink.server.player.AudioLossCounter;
+import lavalink.server.player.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Player counts and frame rates of all connected clients
+ */
+class PlayerCollector extends Collector {
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        int window = AudioLossCounter.MAX_WINDOW;
+        long players = 0;
+        long playingPlayers = 0;
+        long sent = 0;
+        long nulled = 0;
+        long deficit = 0;
+
+        for (SocketContext context : SocketServer.getContexts()) {
+            players += context.getPlayers().size();
+
+            for (Player player : context.getPlayingPlayers()) {
+                playingPlayers++;
+                AudioLossCounter counter = player.getAudioLossCounter();
+                if (!counter.isDataUsable(window)) continue;
+
+                AudioLossCounter.Window frames = counter.getWindow(window);
+                sent += frames.getSuccess();
+                nulled += frames.getLoss();
+                deficit += frames.getDeficit();
+            }
+        }
+
+        List<MetricFamilySamples> samples = new ArrayList<>();
+        samples.add(new GaugeMetricFamily("lavalink_players", "Players of all clients", players));
+        samples.add(new GaugeMetricFamily("lavalink_playing_players", "Players that are playing", playingPlayers));
+
+        GaugeMetricFamily frames = new GaugeMetricFamily("lavalink_frames_per_second",
+                "Frames per second over the last minute, summed over playing players", Collections.singletonList("type"));
+        frames.addMetric(Collections.singletonList("sent"), (double) sent / window);
+        frames.addMetric(Collections.singletonList("nulled"), (double) nulled / window);
+        frames.addMetric(Collections.singletonList("deficit"), (double) deficit / window);
+        samples.add(frames);
+
+        return samples;
+    }
+
+}
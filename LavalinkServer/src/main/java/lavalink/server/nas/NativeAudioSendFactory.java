@@ -25,10 +25,14 @@ package lavalink.server.nas;
 import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
 import com.sedmelluq.discord.lavaplayer.tools.ExecutorTools;
 import com.sedmelluq.discord.lavaplayer.udpqueue.natives.UdpQueueManager;
+import lavalink.server.jfr.Jfr;
+import lavalink.server.jfr.PopulateQueuesEvent;
 import net.dv8tion.jda.audio.factory.IAudioSendFactory;
 import net.dv8tion.jda.audio.factory.IAudioSendSystem;
 import net.dv8tion.jda.audio.factory.IPacketProvider;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentHashMap.KeySetView;
 import java.util.concurrent.ScheduledExecutorService;
@@ -36,35 +40,34 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Sends audio through native UDP queues. Send systems are spread over a number of shards by their key, and each shard
+ * has its own queue manager, populator thread and native sending thread, so that one populator doesn't become the
+ * ceiling on big nodes.
+ */
 public class NativeAudioSendFactory implements IAudioSendFactory {
     private static final int BUFFER_DURATION = 400;
     private static final int PACKET_INTERVAL = 20;
     private static final int MAXIMUM_PACKET_SIZE = 4096;
+    private static final int POPULATE_INTERVAL = 40;
+    // Weight of the latest pass in the pass duration average
+    private static final double PASS_SMOOTHING = 0.05;
 
     private final AtomicLong identifierCounter = new AtomicLong();
-    private final KeySetView<NativeAudioSendSystem, Boolean> systems = ConcurrentHashMap.newKeySet();
-    private final Object lock = new Object();
-    private volatile UdpQueueManager queueManager;
-    private ScheduledExecutorService scheduler;
-
-    private void initialiseQueueManager() {
-        scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("native-udp"));
-        queueManager = new UdpQueueManager(BUFFER_DURATION / PACKET_INTERVAL,
-                TimeUnit.MILLISECONDS.toNanos(PACKET_INTERVAL), MAXIMUM_PACKET_SIZE);
-
-        scheduler.scheduleAtFixedRate(this::populateQueues, 0, 40, TimeUnit.MILLISECONDS);
-
-        Thread thread = new Thread(queueManager::process);
-        thread.setPriority((Thread.NORM_PRIORITY + Thread.MAX_PRIORITY) / 2);
-        thread.setDaemon(true);
-        thread.start();
-    }
+    private final Shard[] shards;
 
-    private void shutdownQueueManager() {
-        queueManager.close();
-        queueManager = null;
+    /**
+     * @param shardCount the number of queue managers. 0 means one for every 8 CPU cores
+     */
+    public NativeAudioSendFactory(int shardCount) {
+        if (shardCount <= 0) {
+            shardCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 8);
+        }
 
-        ExecutorTools.shutdownExecutor(scheduler, "native udp queue populator");
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
     }
 
     @Override
@@ -73,30 +76,228 @@ public class NativeAudioSendFactory implements IAudioSendFactory {
     }
 
     void addInstance(NativeAudioSendSystem system) {
-        synchronized (lock) {
-            systems.add(system);
+        getShard(system).addInstance(system);
+    }
 
-            if (queueManager == null) {
-                initialiseQueueManager();
+    void removeInstance(NativeAudioSendSystem system) {
+        getShard(system).removeInstance(system);
+    }
+
+    private Shard getShard(NativeAudioSendSystem system) {
+        return shards[Math.floorMod(Long.hashCode(system.getQueueKey()), shards.length)];
+    }
+
+    public QueueStats getQueueStats() {
+        QueueStats stats = new QueueStats();
+
+        for (Shard shard : shards) {
+            UdpQueueManager manager = shard.queueManager;
+            if (manager == null) continue;
+
+            for (NativeAudioSendSystem system : shard.systems) {
+                int queued = system.getQueuedPackets(manager);
+                stats.queues++;
+                stats.queuedPackets += queued;
+                stats.capacity += manager.getCapacity();
+                if (queued == 0) stats.emptyQueues++;
             }
         }
+
+        return stats;
     }
 
-    void removeInstance(NativeAudioSendSystem system) {
-        synchronized (lock) {
-            if (systems.remove(system) && systems.isEmpty() && queueManager != null) {
-                shutdownQueueManager();
-            }
+    public List<ShardStats> getShardStats() {
+        List<ShardStats> list = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            list.add(new ShardStats(shard));
         }
+        return list;
     }
 
-    private void populateQueues() {
-        UdpQueueManager manager = queueManager;
+    private static class Shard {
+
+        private final int index;
+        private final KeySetView<NativeAudioSendSystem, Boolean> systems = ConcurrentHashMap.newKeySet();
+        private final Object lock = new Object();
+        private volatile UdpQueueManager queueManager;
+        private ScheduledExecutorService scheduler;
+
+        // Only written by the populator thread
+        private volatile long lastPass = 0; // ns
+        private volatile double passAverage = 0; // ns
+        private volatile int backlog = 0;
+        private volatile int parked = 0;
+        private final AtomicLong overruns = new AtomicLong();
+
+        private Shard(int index) {
+            this.index = index;
+        }
+
+        private void initialiseQueueManager() {
+            scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("native-udp-" + index));
+            queueManager = new UdpQueueManager(BUFFER_DURATION / PACKET_INTERVAL,
+                    TimeUnit.MILLISECONDS.toNanos(PACKET_INTERVAL), MAXIMUM_PACKET_SIZE);
+
+            scheduler.scheduleAtFixedRate(this::populateQueues, 0, POPULATE_INTERVAL, TimeUnit.MILLISECONDS);
+
+            Thread thread = new Thread(queueManager::process, "native-udp-process-" + index);
+            thread.setPriority((Thread.NORM_PRIORITY + Thread.MAX_PRIORITY) / 2);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void shutdownQueueManager() {
+            queueManager.close();
+            queueManager = null;
+
+            ExecutorTools.shutdownExecutor(scheduler, "native udp queue populator");
+        }
+
+        private void addInstance(NativeAudioSendSystem system) {
+            synchronized (lock) {
+                systems.add(system);
+
+                if (queueManager == null) {
+                    initialiseQueueManager();
+                }
+            }
+        }
+
+        private void removeInstance(NativeAudioSendSystem system) {
+            synchronized (lock) {
+                if (systems.remove(system) && systems.isEmpty() && queueManager != null) {
+                    shutdownQueueManager();
+                }
+            }
+        }
+
+        private void populateQueues() {
+            UdpQueueManager manager = queueManager;
 
-        if (manager != null) {
-            for (NativeAudioSendSystem system : systems) {
-                system.populateQueue(queueManager);
+            if (manager != null) {
+                long start = System.nanoTime();
+                PopulateQueuesEvent event = null;
+                if (Jfr.AVAILABLE) {
+                    event = new PopulateQueuesEvent();
+                    event.begin();
+                }
+
+                int count = 0;
+                int missing = 0;
+                int parked = 0;
+                for (NativeAudioSendSystem system : systems) {
+                    count++;
+                    if (system.isParked(start)) {
+                        parked++;
+                        continue;
+                    }
+
+                    missing += system.populateQueue(manager, start);
+                }
+
+                long duration = System.nanoTime() - start;
+                lastPass = duration;
+                passAverage += (duration - passAverage) * PASS_SMOOTHING;
+                backlog = missing;
+                this.parked = parked;
+                if (duration > TimeUnit.MILLISECONDS.toNanos(POPULATE_INTERVAL)) {
+                    overruns.incrementAndGet();
+                }
+
+                if (event != null && event.shouldCommit()) {
+                    event.shard = index;
+                    event.systems = count;
+                    event.commit();
+                }
             }
         }
     }
+
+    public static class QueueStats {
+
+        private int queues = 0;
+        private long queuedPackets = 0;
+        private long capacity = 0;
+        private int emptyQueues = 0;
+
+        public int getQueues() {
+            return queues;
+        }
+
+        public long getQueuedPackets() {
+            return queuedPackets;
+        }
+
+        public long getCapacity() {
+            return capacity;
+        }
+
+        public int getEmptyQueues() {
+            return emptyQueues;
+        }
+    }
+
+    public static class ShardStats {
+
+        private final int index;
+        private final int systems;
+        private final double lastPass;
+        private final double averagePass;
+        private final int backlog;
+        private final int parked;
+        private final long overruns;
+
+        private ShardStats(Shard shard) {
+            this.index = shard.index;
+            this.systems = shard.systems.size();
+            this.lastPass = shard.lastPass / 1000000d;
+            this.averagePass = shard.passAverage / 1000000d;
+            this.backlog = shard.backlog;
+            this.parked = shard.parked;
+            this.overruns = shard.overruns.get();
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getSystems() {
+            return systems;
+        }
+
+        /**
+         * @return the duration of the last populator pass in milliseconds
+         */
+        public double getLastPass() {
+            return lastPass;
+        }
+
+        /**
+         * @return the smoothed duration of populator passes in milliseconds
+         */
+        public double getAveragePass() {
+            return averagePass;
+        }
+
+        /**
+         * @return the free queue slots the last pass found, which it had to fill
+         */
+        public int getBacklog() {
+            return backlog;
+        }
+
+        /**
+         * @return the send systems the last pass skipped, because their players had nothing to play
+         */
+        public int getParked() {
+            return parked;
+        }
+
+        /**
+         * @return how many passes took longer than the populate interval
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+    }
 }
@@ -23,6 +23,7 @@
 package lavalink.server.nas;
 
 import com.sedmelluq.discord.lavaplayer.udpqueue.natives.UdpQueueManager;
+import lavalink.server.player.SendParking;
 import net.dv8tion.jda.audio.factory.IAudioSendSystem;
 import net.dv8tion.jda.audio.factory.IPacketProvider;
 
@@ -32,6 +33,7 @@ public class NativeAudioSendSystem implements IAudioSendSystem {
     private final long queueKey;
     private final NativeAudioSendFactory audioSendSystem;
     private final IPacketProvider packetProvider;
+    private final SendParking parking = new SendParking();
 
     public NativeAudioSendSystem(long queueKey, NativeAudioSendFactory audioSendSystem, IPacketProvider packetProvider) {
         this.queueKey = queueKey;
@@ -49,16 +51,39 @@ public class NativeAudioSendSystem implements IAudioSendSystem {
         audioSendSystem.removeInstance(this);
     }
 
-    void populateQueue(UdpQueueManager queueManager) {
+    int getQueuedPackets(UdpQueueManager queueManager) {
+        return queueManager.getCapacity() - queueManager.getRemainingCapacity(queueKey);
+    }
+
+    long getQueueKey() {
+        return queueKey;
+    }
+
+    boolean isParked(long now) {
+        return parking.isParked(now);
+    }
+
+    /**
+     * @return the number of free slots the queue had before populating
+     */
+    int populateQueue(UdpQueueManager queueManager, long now) {
         int remaining = queueManager.getRemainingCapacity(queueKey);
         boolean emptyQueue = queueManager.getCapacity() - remaining > 0;
 
         for (int i = 0; i < remaining; i++) {
+            parking.beforePoll();
             DatagramPacket packet = packetProvider.getNextPacket(emptyQueue);
 
-            if (packet == null || !queueManager.queuePacket(queueKey, packet)) {
+            if (packet == null) {
+                parking.onMissingPacket(now);
+                break;
+            }
+
+            if (!queueManager.queuePacket(queueKey, packet)) {
                 break;
             }
         }
+
+        return remaining;
     }
 }
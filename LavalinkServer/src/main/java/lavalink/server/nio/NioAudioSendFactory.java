@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.nio;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+import net.dv8tion.jda.audio.factory.IAudioSendFactory;
+import net.dv8tion.jda.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.audio.factory.IPacketProvider;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentHashMap.KeySetView;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends audio from a single pacing thread through a few non-blocking datagram channels. Unlike JDA's default, this
+ * doesn't need a thread per connection, and unlike the native factory it runs on any platform.
+ * <p>
+ * Each connection keeps a few frames buffered ahead and sends them on its own 20ms deadlines, so a late wakeup of the
+ * pacing thread is caught up on instead of losing a packet.
+ */
+public class NioAudioSendFactory implements IAudioSendFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(NioAudioSendFactory.class);
+
+    static final long PACKET_INTERVAL = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final int channelCount;
+    private final int bufferFrames;
+    private final AtomicLong identifierCounter = new AtomicLong();
+    private final KeySetView<NioAudioSendSystem, Boolean> systems = ConcurrentHashMap.newKeySet();
+    private final Object lock = new Object();
+    private Thread sender;
+    private DatagramChannel[] channels;
+
+    private final AtomicLong sentPackets = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
+
+    /**
+     * @param channelCount the number of datagram channels to send from. 0 means one for every 4 CPU cores
+     * @param bufferFrames the number of 20ms frames each connection polls ahead of sending
+     */
+    public NioAudioSendFactory(int channelCount, int bufferFrames) {
+        if (bufferFrames < 1) {
+            throw new IllegalArgumentException("At least one frame must be buffered, got " + bufferFrames);
+        }
+
+        this.channelCount = channelCount > 0 ? channelCount : Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        this.bufferFrames = bufferFrames;
+    }
+
+    @Override
+    public IAudioSendSystem createSendSystem(IPacketProvider packetProvider) {
+        return new NioAudioSendSystem(identifierCounter.incrementAndGet(), this, packetProvider, bufferFrames);
+    }
+
+    void addInstance(NioAudioSendSystem system) {
+        synchronized (lock) {
+            systems.add(system);
+
+            if (sender == null) {
+                initialise();
+            }
+        }
+    }
+
+    void removeInstance(NioAudioSendSystem system) {
+        synchronized (lock) {
+            if (systems.remove(system) && systems.isEmpty() && sender != null) {
+                shutdown();
+            }
+        }
+    }
+
+    private void initialise() {
+        channels = new DatagramChannel[channelCount];
+        try {
+            for (int i = 0; i < channelCount; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].configureBlocking(false);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw new RuntimeException("Failed to open datagram channels", e);
+        }
+
+        // The sender keeps its own reference, so a restart can't hand it the channels of the next sender
+        DatagramChannel[] channels = this.channels;
+        sender = new DaemonThreadFactory("nio-udp").newThread(() -> sendPackets(channels));
+        sender.start();
+    }
+
+    private void shutdown() {
+        sender.interrupt();
+        sender = null;
+        closeChannels();
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            if (channel == null) continue;
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close datagram channel", e);
+            }
+        }
+    }
+
+    private void sendPackets(DatagramChannel[] channels) {
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            long wakeUp = now + PACKET_INTERVAL;
+
+            for (NioAudioSendSystem system : systems) {
+                // One connection shouldn't hold up the rest
+                try {
+                    DatagramChannel channel = channels[(int) (system.getIdentifier() % channels.length)];
+                    wakeUp = Math.min(wakeUp, system.process(now, channel));
+                } catch (ClosedChannelException e) {
+                    // We have been shut down
+                    return;
+                } catch (Exception e) {
+                    log.error("Error while sending audio packet", e);
+                }
+            }
+
+            LockSupport.parkNanos(wakeUp - System.nanoTime());
+        }
+    }
+
+    void onSend(boolean sent) {
+        if (sent) {
+            sentPackets.incrementAndGet();
+        } else {
+            droppedPackets.incrementAndGet();
+        }
+    }
+
+    public long getSentPackets() {
+        return sentPackets.get();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        json.put("systems", systems.size());
+        json.put("sentPackets", sentPackets.get());
+        json.put("droppedPackets", droppedPackets.get());
+        return json;
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.nio;
+
+import lavalink.server.player.SendParking;
+import net.dv8tion.jda.audio.factory.IAudioSendSystem;
+import net.dv8tion.jda.audio.factory.IPacketProvider;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+public class NioAudioSendSystem implements IAudioSendSystem {
+
+    private static final int MAXIMUM_PACKET_SIZE = 2048;
+    // If we haven't polled anything for longer than this, the speaking state may have to change
+    private static final long SILENCE_THRESHOLD = NioAudioSendFactory.PACKET_INTERVAL * 2;
+
+    private final long identifier;
+    private final NioAudioSendFactory factory;
+    private final IPacketProvider packetProvider;
+    private final SendParking parking = new SendParking();
+
+    // Everything below is only used by the pacing thread
+    private final ByteBuffer[] packets;
+    private final InetSocketAddress[] addresses;
+    private int head = 0;
+    private int count = 0;
+    private final long maximumLag;
+    private long deadline;
+    private long lastPolled = 0;
+    // The pacing thread wakes up for other connections too, but an empty provider is only asked again a frame later
+    private long nextPoll = 0;
+    private InetSocketAddress address = null;
+
+    NioAudioSendSystem(long identifier, NioAudioSendFactory factory, IPacketProvider packetProvider, int bufferFrames) {
+        this.identifier = identifier;
+        this.factory = factory;
+        this.packetProvider = packetProvider;
+        this.packets = new ByteBuffer[bufferFrames];
+        this.addresses = new InetSocketAddress[bufferFrames];
+        this.maximumLag = NioAudioSendFactory.PACKET_INTERVAL * bufferFrames;
+
+        for (int i = 0; i < bufferFrames; i++) {
+            packets[i] = ByteBuffer.allocateDirect(MAXIMUM_PACKET_SIZE);
+        }
+    }
+
+    @Override
+    public void start() {
+        factory.addInstance(this);
+    }
+
+    @Override
+    public void shutdown() {
+        factory.removeInstance(this);
+    }
+
+    long getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Sends every buffered packet whose deadline has passed, then tops the buffer up again
+     *
+     * @return when this should be processed next
+     */
+    long process(long now, DatagramChannel channel) throws IOException {
+        if (count == 0 || now - deadline > maximumLag) {
+            // Nothing was queued, or we stalled for longer than the buffer covers. Bursting all of that out would only
+            // make it arrive later, so start a new schedule from here
+            deadline = now;
+        }
+
+        while (count > 0 && deadline - now <= 0) {
+            ByteBuffer packet = packets[head];
+            // Never blocks. If the socket buffer is full, the packet would be late anyway
+            factory.onSend(channel.send(packet, addresses[head]) != 0);
+
+            head = (head + 1) % packets.length;
+            count--;
+            deadline += NioAudioSendFactory.PACKET_INTERVAL;
+        }
+
+        poll(now);
+        return count > 0 ? deadline : now + NioAudioSendFactory.PACKET_INTERVAL;
+    }
+
+    private void poll(long now) {
+        if (now - nextPoll < 0) return;
+
+        while (count < packets.length) {
+            if (parking.isParked(now)) return;
+
+            parking.beforePoll();
+            DatagramPacket packet = packetProvider.getNextPacket(now - lastPolled > SILENCE_THRESHOLD);
+            if (packet == null) {
+                parking.onMissingPacket(now);
+                nextPoll = now + NioAudioSendFactory.PACKET_INTERVAL;
+                return;
+            }
+
+            lastPolled = now;
+            int tail = (head + count) % packets.length;
+            ByteBuffer buffer = packets[tail];
+            buffer.clear();
+            buffer.put(packet.getData(), packet.getOffset(), packet.getLength());
+            buffer.flip();
+            addresses[tail] = getAddress(packet);
+            count++;
+        }
+    }
+
+    /**
+     * {@link DatagramPacket#getSocketAddress()} allocates a new address every time, but the voice server rarely changes
+     */
+    private InetSocketAddress getAddress(DatagramPacket packet) {
+        InetSocketAddress address = this.address;
+        if (address == null || address.getPort() != packet.getPort() || !address.getAddress().equals(packet.getAddress())) {
+            address = new InetSocketAddress(packet.getAddress(), packet.getPort());
+            this.address = address;
+        }
+        return address;
+    }
+
+}
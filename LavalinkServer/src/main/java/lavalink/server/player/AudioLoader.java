@@ -26,69 +26,152 @@ import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.server.jfr.Jfr;
+import lavalink.server.jfr.TrackLoadEvent;
+import lavalink.server.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AudioLoader implements AudioLoadResultHandler {
 
     private static final Logger log = LoggerFactory.getLogger(AudioLoader.class);
 
-    private List<AudioTrack> loadedItems;
-    private boolean used = false;
+    // Loads that haven't finished yet. Requests for the same identifier share the same load
+    private static final ConcurrentHashMap<String, CompletableFuture<LoadResult>> inFlight = new ConcurrentHashMap<>();
 
-    List<AudioTrack> loadSync(String identifier) throws InterruptedException {
-        if(used)
-            throw new IllegalStateException("This loader can only be used once per instance");
+    private final CompletableFuture<LoadResult> result;
 
-        used = true;
+    private AudioLoader(CompletableFuture<LoadResult> result) {
+        this.result = result;
+    }
+
+    /**
+     * Loads the identifier without blocking. Results are cached, and if the identifier is already being loaded,
+     * the same result is returned.
+     */
+    static CompletableFuture<LoadResult> load(String identifier) {
+        long start = System.nanoTime();
+
+        CompletableFuture<LoadResult> result = loadCached(identifier);
+        // Runs on the loader thread, or straight away on this one if the result was cached
+        result.whenComplete((loaded, throwable) -> {
+            long loadTime = System.nanoTime() - start;
+            if (loaded != null) {
+                Metrics.observeSince(Metrics.TRACK_LOADS, getSource(loaded), start);
+            }
+
+            if (Jfr.AVAILABLE) {
+                // JFR events belong to the thread that begins them, so the whole event is recorded on this one
+                TrackLoadEvent event = new TrackLoadEvent();
+                event.begin();
+                if (event.shouldCommit()) {
+                    event.identifier = identifier;
+                    event.loadTime = loadTime;
+                    if (loaded != null) {
+                        event.source = getSource(loaded);
+                        event.result = loaded.getStatus().name();
+                        event.tracks = loaded.getTracks().size();
+                    } else {
+                        event.source = "none";
+                        event.result = LoadResult.Status.LOAD_FAILED.name();
+                    }
+                    event.commit();
+                }
+            }
+        });
+        return result;
+    }
 
-        Player.PLAYER_MANAGER.loadItem(identifier, this);
+    private static CompletableFuture<LoadResult> loadCached(String identifier) {
+        LoadResult cached = TrackLoadCache.INSTANCE.get(identifier);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
 
-        synchronized (this) {
-            this.wait();
+        CompletableFuture<LoadResult> result = new CompletableFuture<>();
+        CompletableFuture<LoadResult> existing = inFlight.putIfAbsent(identifier, result);
+
+        if (existing != null) {
+            log.info("Joining in-flight load of " + identifier);
+            return existing;
         }
 
-        return loadedItems;
+        result.whenComplete((loaded, throwable) -> {
+            if (loaded != null) TrackLoadCache.INSTANCE.put(identifier, loaded);
+            inFlight.remove(identifier, result);
+        });
+
+        try {
+            Player.PLAYER_MANAGER.loadItem(identifier, new AudioLoader(result));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    private static String getSource(LoadResult result) {
+        if (result.getTracks().isEmpty()) return "none";
+        return result.getTracks().get(0).getSourceManager().getSourceName();
+    }
+
+    /**
+     * Loads all identifiers, with at most the given number of loads running at once
+     *
+     * @return the results in the same order as the identifiers. Loads that threw are reported as failed
+     */
+    static CompletableFuture<List<LoadResult>> loadAll(List<String> identifiers, int parallelism) {
+        LoadResult[] results = new LoadResult[identifiers.size()];
+        int lanes = Math.max(1, Math.min(parallelism, identifiers.size()));
+        CompletableFuture<?>[] laneFutures = new CompletableFuture[lanes];
+
+        // Each lane loads its share of the identifiers one after another
+        for (int lane = 0; lane < lanes; lane++) {
+            CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+
+            for (int i = lane; i < identifiers.size(); i += lanes) {
+                int index = i;
+                future = future.thenCompose(ignored -> load(identifiers.get(index))
+                        .handle((result, throwable) -> {
+                            if (throwable != null) log.error("Load failed", throwable);
+                            results[index] = result != null ? result : LoadResult.empty(LoadResult.Status.LOAD_FAILED);
+                            return null;
+                        }));
+            }
+
+            laneFutures[lane] = future;
+        }
+
+        return CompletableFuture.allOf(laneFutures).thenApply(ignored -> Arrays.asList(results));
     }
 
     @Override
     public void trackLoaded(AudioTrack audioTrack) {
-        loadedItems = new ArrayList<>();
-        loadedItems.add(audioTrack);
         log.info("Loaded track " + audioTrack.getInfo().title);
-        synchronized (this) {
-            this.notify();
-        }
+        result.complete(new LoadResult(LoadResult.Status.TRACK_LOADED, Collections.singletonList(audioTrack)));
     }
 
     @Override
     public void playlistLoaded(AudioPlaylist audioPlaylist) {
         log.info("Loaded playlist " + audioPlaylist.getName());
-        loadedItems = audioPlaylist.getTracks();
-        synchronized (this) {
-            this.notify();
-        }
+        result.complete(new LoadResult(LoadResult.Status.PLAYLIST_LOADED, new ArrayList<>(audioPlaylist.getTracks())));
     }
 
     @Override
     public void noMatches() {
         log.info("No matches found");
-        loadedItems = new ArrayList<>();
-        synchronized (this) {
-            this.notify();
-        }
+        result.complete(LoadResult.empty(LoadResult.Status.NO_MATCHES));
     }
 
     @Override
     public void loadFailed(FriendlyException e) {
         log.error("Load failed", e);
-        loadedItems = new ArrayList<>();
-        synchronized (this) {
-            this.notify();
-        }
+        result.complete(LoadResult.empty(LoadResult.Status.LOAD_FAILED));
     }
 
 }
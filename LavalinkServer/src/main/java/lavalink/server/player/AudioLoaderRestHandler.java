@@ -23,55 +23,221 @@
 package lavalink.server.player;
 
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import lavalink.server.Launcher;
+import lavalink.server.util.DecodedTrackCache;
 import lavalink.server.util.Util;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
 
 @Controller
 public class AudioLoaderRestHandler {
 
     private static final Logger log = LoggerFactory.getLogger(AudioLoaderRestHandler.class);
 
+    // Tracks encoded at a time when streaming
+    private static final int STREAM_CHUNK_SIZE = 256;
+
     @GetMapping(value = "/loadtracks", produces = "application/json")
     @ResponseBody
-    public String get(HttpServletRequest request, HttpServletResponse response, @RequestParam String identifier)
-            throws IOException, InterruptedException {
+    public CompletionStage<StreamingResponseBody> get(HttpServletRequest request, HttpServletResponse response,
+                                                      @RequestParam String identifier,
+                                                      @RequestParam(defaultValue = "0") int offset,
+                                                      @RequestParam(defaultValue = "-1") int limit,
+                                                      @RequestParam(defaultValue = "false") boolean info) {
+        if (!isAuthorized(request, response)) {
+            return CompletableFuture.completedFuture(out -> {});
+        }
+
+        // The servlet thread is released while lavaplayer loads
+        return AudioLoader.load(identifier).thenApply(result -> {
+            List<AudioTrack> tracks = result.getTracks();
+            int from = Math.min(Math.max(offset, 0), tracks.size());
+            int to = limit < 0 ? tracks.size() : (int) Math.min((long) from + limit, tracks.size());
+
+            response.setContentType("application/json");
+            return out -> writeTracks(out, result.getStatus(), tracks.size(), tracks.subList(from, to), info);
+        });
+    }
+
+    @PostMapping(value = "/loadtracks/batch", produces = "application/json")
+    @ResponseBody
+    public CompletionStage<String> postBatch(HttpServletRequest request, HttpServletResponse response,
+                                             @RequestBody String body,
+                                             @RequestParam(defaultValue = "false") boolean info) {
+        if (!isAuthorized(request, response)) {
+            return CompletableFuture.completedFuture("");
+        }
+
+        List<String> identifiers = new ArrayList<>();
+        try {
+            new JSONArray(body).forEach(identifier -> identifiers.add((String) identifier));
+        } catch (JSONException | ClassCastException e) {
+            log.warn("Bad batch load request", e);
+            response.setStatus(400);
+            return CompletableFuture.completedFuture("");
+        }
+
+        // Every identifier may become a load, so one request mustn't be able to queue any number of them
+        int maxSize = Launcher.config.getLoadBatchMaxSize();
+        if (identifiers.size() > maxSize) {
+            log.warn("Rejected batch load request of " + identifiers.size() + " identifiers, the maximum is " + maxSize);
+            response.setStatus(400);
+            return CompletableFuture.completedFuture("");
+        }
+
+        return AudioLoader.loadAll(identifiers, Launcher.config.getLoadBatchParallelism()).thenApply(results -> {
+            JSONArray json = new JSONArray();
+
+            for (int i = 0; i < results.size(); i++) {
+                JSONObject item = new JSONObject();
+                item.put("identifier", identifiers.get(i));
+                item.put("loadType", results.get(i).getStatus().name());
+                item.put("tracks", encodeTracks(results.get(i), info));
+                json.put(item);
+            }
+
+            return json.toString();
+        });
+    }
+
+    @PostMapping(value = "/decodetracks", produces = "application/json")
+    @ResponseBody
+    public String postDecode(HttpServletRequest request, HttpServletResponse response, @RequestBody String body) {
+        if (!isAuthorized(request, response)) {
+            return "";
+        }
+
+        JSONArray messages;
+        try {
+            messages = new JSONArray(body);
+        } catch (JSONException e) {
+            log.warn("Bad decode request", e);
+            response.setStatus(400);
+            return "";
+        }
+
+        JSONArray json = new JSONArray();
+        for (Object message : messages) {
+            AudioTrack track;
+            try {
+                // Tracks that are about to be played are decoded only once
+                track = DecodedTrackCache.INSTANCE.decode((String) message);
+            } catch (IOException | RuntimeException e) {
+                // One bad track doesn't fail the others
+                log.warn("Failed to decode track " + message, e);
+                track = null;
+            }
+            // Null if the track couldn't be decoded or its source isn't enabled on this node
+            json.put(track == null ? JSONObject.NULL : toInfoJson(track));
+        }
+
+        return json.toString();
+    }
+
+    private boolean isAuthorized(HttpServletRequest request, HttpServletResponse response) {
         String path = request.getServletPath();
-        log.info("GET " + path);
+        log.info(request.getMethod() + " " + path);
 
         if (request.getHeader("Authorization") != null &&
                 !request.getHeader("Authorization").equals(Launcher.config.getPassword())) {
             log.warn("Authorization failed");
             response.setStatus(403);
-            return "";
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the tracks as they are encoded, so big playlists never have to be held in memory as a whole
+     */
+    private static void writeTracks(OutputStream out, LoadResult.Status status, int total, List<AudioTrack> tracks,
+                                    boolean info) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write("{\"loadType\":\"" + status.name() + "\",\"total\":" + total + ",\"tracks\":[");
+
+        for (int from = 0; from < tracks.size(); from += STREAM_CHUNK_SIZE) {
+            List<AudioTrack> chunk = tracks.subList(from, Math.min(from + STREAM_CHUNK_SIZE, tracks.size()));
+            // Encoding is spread across cores
+            List<String> encoded = chunk.parallelStream()
+                    .map(track -> info ? toJson(track).toString() : JSONObject.quote(toMessage(track)))
+                    .collect(Collectors.toList());
+
+            for (int i = 0; i < encoded.size(); i++) {
+                if (from + i > 0) writer.write(',');
+                writer.write(encoded.get(i));
+            }
+            writer.flush();
         }
 
+        writer.write("]}");
+        writer.flush();
+    }
+
+    private static String toMessage(AudioTrack track) {
+        try {
+            return Util.toMessage(track);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the encoded track along with its info, so clients don't have to decode it to display it
+     */
+    private static JSONObject toJson(AudioTrack track) {
+        JSONObject json = new JSONObject();
+        json.put("track", toMessage(track));
+        json.put("info", toInfoJson(track));
+        return json;
+    }
+
+    private static JSONObject toInfoJson(AudioTrack track) {
+        AudioTrackInfo info = track.getInfo();
         JSONObject json = new JSONObject();
+        json.put("title", info.title);
+        json.put("author", info.author);
+        json.put("length", info.length);
+        json.put("identifier", info.identifier);
+        json.put("uri", info.uri);
+        json.put("isStream", info.isStream);
+        return json;
+    }
+
+    /**
+     * @param info whether to include the info of each track, rather than only the encoded track
+     */
+    private static JSONArray encodeTracks(LoadResult result, boolean info) {
         JSONArray tracks = new JSONArray();
-        List<AudioTrack> list = new AudioLoader().loadSync(identifier);
 
-        list.forEach(track -> {
-            try {
-                tracks.put(Util.toMessage(track));
-            } catch (IOException e) {
-                throw new RuntimeException();
-            }
-        });
+        result.getTracks().forEach(track -> tracks.put(info ? toJson(track) : toMessage(track)));
 
-        json.put("tracks", tracks);
-        return json.toString();
+        return tracks;
     }
 
 }
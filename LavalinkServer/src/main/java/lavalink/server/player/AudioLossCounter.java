@@ -26,64 +26,110 @@ import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import lavalink.server.util.CoarseClock;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts provided and missing frames in a ring of per-second buckets.
+ * <p>
+ * Only the audio sending thread writes to this, so a bucket is updated with a plain read and a lazySet.
+ * Each bucket is packed into a single long so readers on other threads always see a consistent second.
+ */
 public class AudioLossCounter extends AudioEventAdapter {
 
-    public static final int EXPECTED_PACKET_COUNT_PER_MIN = (60 * 1000) / 20; // 20ms packets
+    public static final int EXPECTED_PACKETS_PER_SECOND = 1000 / 20; // 20ms packets
+    public static final int EXPECTED_PACKET_COUNT_PER_MIN = 60 * EXPECTED_PACKETS_PER_SECOND;
     private static final int ACCEPTABLE_TRACK_SWITCH_TIME = 100; //ms
 
-    private long curMinute = 0;
-    private int curLoss = 0;
-    private int curSucc = 0;
+    public static final int MAX_WINDOW = 60; // seconds
+    private static final int BUCKETS = 64; // Power of two larger than MAX_WINDOW, so the current second never overlaps
+    private static final int COUNT_BITS = 13;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
 
-    private int lastLoss = 0;
-    private int lastSucc = 0;
+    // Each bucket is (second << 26) | (loss << 13) | success
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
 
-    private long playingSince = Long.MAX_VALUE;
-    private long lastTrackStarted = Long.MAX_VALUE / 2;
-    private long lastTrackEnded = Long.MAX_VALUE;
+    private volatile long playingSince = Long.MAX_VALUE;
+    private volatile long lastTrackStarted = Long.MAX_VALUE / 2;
+    private volatile long lastTrackEnded = Long.MAX_VALUE;
 
     AudioLossCounter() {
     }
 
     void onLoss() {
-        checkTime();
-        curLoss++;
+        increment(1L << COUNT_BITS);
     }
 
     void onSuccess() {
-        checkTime();
-        curSucc++;
+        increment(1L);
+    }
+
+    private void increment(long delta) {
+        long second = CoarseClock.currentSecond();
+        int index = (int) (second & (BUCKETS - 1));
+        long bucket = buckets.get(index);
+
+        if (bucket >>> (2 * COUNT_BITS) != second) {
+            bucket = second << (2 * COUNT_BITS);
+        }
+
+        // Don't let a runaway count spill into the neighbouring field
+        long count = delta == 1 ? bucket & COUNT_MASK : (bucket >>> COUNT_BITS) & COUNT_MASK;
+        if (count < COUNT_MASK) {
+            bucket += delta;
+        }
+
+        buckets.lazySet(index, bucket);
+    }
+
+    /**
+     * Sums the last completed seconds. The second currently in progress is not included.
+     *
+     * @param seconds the size of the window, at most {@link #MAX_WINDOW}
+     */
+    public Window getWindow(int seconds) {
+        if (seconds < 1 || seconds > MAX_WINDOW) {
+            throw new IllegalArgumentException("Window must be between 1 and " + MAX_WINDOW + " seconds");
+        }
+
+        long current = CoarseClock.currentSecond();
+        int loss = 0;
+        int success = 0;
+
+        for (long second = current - seconds; second < current; second++) {
+            long bucket = buckets.get((int) (second & (BUCKETS - 1)));
+            if (bucket >>> (2 * COUNT_BITS) != second) continue; // Nothing was counted that second
+
+            loss += (int) ((bucket >>> COUNT_BITS) & COUNT_MASK);
+            success += (int) (bucket & COUNT_MASK);
+        }
+
+        return new Window(seconds, loss, success);
     }
 
     public int getLastMinuteLoss() {
-        return lastLoss;
+        return getWindow(MAX_WINDOW).getLoss();
     }
 
     public int getLastMinuteSuccess() {
-        return lastSucc;
+        return getWindow(MAX_WINDOW).getSuccess();
     }
 
     public boolean isDataUsable() {
+        return isDataUsable(MAX_WINDOW);
+    }
+
+    /**
+     * @return true if this player has been playing for the entire window
+     */
+    public boolean isDataUsable(int seconds) {
         // Check that there isn't a significant gap in playback. If no track has ended yet, we can look past that
         if(lastTrackStarted - lastTrackEnded > ACCEPTABLE_TRACK_SWITCH_TIME
                 && lastTrackEnded != Long.MAX_VALUE) return false;
 
-        // Check that we have at least stats for last minute
-        long lastMin = System.currentTimeMillis() / 60000 - 1;
-        return playingSince < lastMin * 60000;
-    }
-
-    private void checkTime() {
-        long actualMinute = System.currentTimeMillis() / 60000;
-
-        if(curMinute != actualMinute) {
-            lastLoss = curLoss;
-            lastSucc = curSucc;
-            curLoss = 0;
-            curSucc = 0;
-            curMinute = actualMinute;
-        }
+        // Check that we have stats for the whole window
+        return playingSince < (CoarseClock.currentSecond() - seconds) * 1000;
     }
 
     @Override
@@ -100,12 +146,48 @@ public class AudioLossCounter extends AudioEventAdapter {
         }
     }
 
+    @Override
+    public void onPlayerResume(AudioPlayer player) {
+        // Paused time isn't counted at all, so the windows only cover playback again once they are full
+        playingSince = System.currentTimeMillis();
+    }
+
     @Override
     public String toString() {
+        Window window = getWindow(MAX_WINDOW);
         return "AudioLossCounter{" +
-                "lastLoss=" + lastLoss +
-                ", lastSucc=" + lastSucc +
-                ", total=" + (lastSucc + lastLoss) +
+                "lastLoss=" + window.getLoss() +
+                ", lastSucc=" + window.getSuccess() +
+                ", total=" + (window.getLoss() + window.getSuccess()) +
                 '}';
     }
+
+    public static class Window {
+
+        private final int seconds;
+        private final int loss;
+        private final int success;
+
+        private Window(int seconds, int loss, int success) {
+            this.seconds = seconds;
+            this.loss = loss;
+            this.success = success;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+
+        public int getLoss() {
+            return loss;
+        }
+
+        public int getSuccess() {
+            return success;
+        }
+
+        public int getDeficit() {
+            return seconds * EXPECTED_PACKETS_PER_SECOND - (loss + success);
+        }
+    }
 }
@@ -51,14 +51,14 @@ public class EventEmitter extends AudioEventAdapter {
         out.put("type", "TrackEndEvent");
         out.put("guildId", linkPlayer.getGuildId());
         try {
-            out.put("track", Util.toMessage(track));
+            out.put("track", Util.toEncoded(track));
         } catch (IOException e) {
             out.put("track", JSONObject.NULL);
         }
 
         out.put("reason", endReason.toString());
 
-        linkPlayer.getSocket().getSocket().send(out.toString());
+        linkPlayer.getSocket().send(out);
     }
 
     // These exceptions are already logged by Lavaplayer
@@ -69,14 +69,14 @@ public class EventEmitter extends AudioEventAdapter {
         out.put("type", "TrackExceptionEvent");
         out.put("guildId", linkPlayer.getGuildId());
         try {
-            out.put("track", Util.toMessage(track));
+            out.put("track", Util.toEncoded(track));
         } catch (IOException e) {
             out.put("track", JSONObject.NULL);
         }
 
         out.put("error", exception.getMessage());
 
-        linkPlayer.getSocket().getSocket().send(out.toString());
+        linkPlayer.getSocket().send(out);
     }
 
     @Override
@@ -88,15 +88,15 @@ public class EventEmitter extends AudioEventAdapter {
         out.put("type", "TrackStuckEvent");
         out.put("guildId", linkPlayer.getGuildId());
         try {
-            out.put("track", Util.toMessage(track));
+            out.put("track", Util.toEncoded(track));
         } catch (IOException e) {
             out.put("track", JSONObject.NULL);
         }
 
         out.put("thresholdMs", thresholdMs);
 
-        linkPlayer.getSocket().getSocket().send(out.toString());
-        SocketServer.sendPlayerUpdate(linkPlayer.getSocket().getSocket(), linkPlayer);
+        linkPlayer.getSocket().send(out);
+        SocketServer.sendPlayerUpdate(linkPlayer.getSocket(), linkPlayer);
     }
 
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+/**
+ * Hands a player's frames to JDA, which wants an array of the exact frame length and copies it straight away.
+ * <p>
+ * Opus frame lengths change almost every frame, so arrays of several lengths are kept. Each length has a single slot
+ * it can be kept in, which bounds the memory a player holds no matter how many lengths its tracks go through.
+ */
+final class FrameArrays {
+
+    // Frame lengths mostly stay within a range about this wide, and consecutive lengths get different slots
+    static final int SLOTS = 64;
+
+    private final byte[][] arrays = new byte[SLOTS][];
+
+    /**
+     * @return the frame's data, in an array that may be reused by a later call with the same length
+     */
+    byte[] copyOf(MutableAudioFrame frame) {
+        int length = frame.getDataLength();
+        int slot = length % SLOTS;
+
+        byte[] data = arrays[slot];
+        if (data == null || data.length != length) {
+            data = new byte[length];
+            arrays[slot] = data;
+        }
+
+        frame.getData(data, 0);
+        return data;
+    }
+
+}
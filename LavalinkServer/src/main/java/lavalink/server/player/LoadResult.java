@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of loading an identifier. The tracks may be shared with other requests, and must not be played.
+ */
+public class LoadResult {
+
+    public enum Status {
+        TRACK_LOADED,
+        PLAYLIST_LOADED,
+        NO_MATCHES,
+        LOAD_FAILED
+    }
+
+    private final Status status;
+    private final List<AudioTrack> tracks;
+
+    LoadResult(Status status, List<AudioTrack> tracks) {
+        this.status = status;
+        this.tracks = Collections.unmodifiableList(tracks);
+    }
+
+    static LoadResult empty(Status status) {
+        return new LoadResult(status, Collections.emptyList());
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public List<AudioTrack> getTracks() {
+        return tracks;
+    }
+
+}
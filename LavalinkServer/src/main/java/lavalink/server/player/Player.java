@@ -22,6 +22,7 @@
 
 package lavalink.server.player;
 
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
@@ -32,15 +33,20 @@ import com.sedmelluq.discord.lavaplayer.source.twitch.TwitchStreamAudioSourceMan
 import com.sedmelluq.discord.lavaplayer.source.vimeo.VimeoAudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
-import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBuffer;
 import lavalink.server.Config;
 import lavalink.server.Launcher;
 import lavalink.server.io.SocketContext;
+import lavalink.server.jfr.Jfr;
+import lavalink.server.jfr.ProvideEvent;
 import net.dv8tion.jda.audio.AudioSendHandler;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+
 public class Player implements AudioSendHandler {
 
     private static final Logger log = LoggerFactory.getLogger(Player.class);
@@ -50,6 +56,8 @@ public class Player implements AudioSendHandler {
     static {
         PLAYER_MANAGER = new DefaultAudioPlayerManager();
         PLAYER_MANAGER.enableGcMonitoring();
+        // Frames are copied into each player's own buffer instead of being allocated per frame
+        PLAYER_MANAGER.getConfiguration().setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
 
         Config.Sources sources = Launcher.config.getSources();
         if (sources.isYoutube()) PLAYER_MANAGER.registerSourceManager(new YoutubeAudioSourceManager());
@@ -61,32 +69,51 @@ public class Player implements AudioSendHandler {
     }
 
     private final SocketContext socketContext;
-    private final String guildId;
+    private final long guildId;
+    private final String guildIdString;
     private final AudioPlayer player;
     private AudioLossCounter audioLossCounter = new AudioLossCounter();
-    private AudioFrame lastFrame = null;
-
-    public Player(SocketContext socketContext, String guildId) {
+    private final MutableAudioFrame frame = new MutableAudioFrame();
+    // Only used by the thread sending for this player
+    private final FrameArrays frameArrays = new FrameArrays();
+    // When the reaper first saw this player idle, or -1. Only used by the reaper, on the guild's op worker
+    private volatile long idleSince = -1;
+    // Unparks the send system, if it stopped polling this player
+    private volatile Runnable sendSystemWaker = null;
+
+    public Player(SocketContext socketContext, long guildId) {
         this.socketContext = socketContext;
         this.guildId = guildId;
+        this.guildIdString = Long.toString(guildId);
         this.player = PLAYER_MANAGER.createPlayer();
         this.player.addListener(new EventEmitter(this));
         this.player.addListener(audioLossCounter);
+        this.frame.setBuffer(ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize()));
     }
 
     public void play(AudioTrack track) {
         player.playTrack(track);
+        wakeSendSystem();
     }
 
     public void stop() {
         player.stopTrack();
     }
 
+    public void destroy() {
+        player.destroy();
+    }
+
     public void setPause(boolean b) {
         player.setPaused(b);
+        if (!b) wakeSendSystem();
     }
 
     public String getGuildId() {
+        return guildIdString;
+    }
+
+    public long getGuildIdLong() {
         return guildId;
     }
 
@@ -113,9 +140,30 @@ public class Player implements AudioSendHandler {
 
     @Override
     public boolean canProvide() {
-        lastFrame = player.provide();
+        // Nothing is lost while there is nothing to play
+        if (!isPlaying()) {
+            SendParking.markIdle(this);
+            return false;
+        }
+
+        ProvideEvent event = null;
+        if (Jfr.AVAILABLE) {
+            event = new ProvideEvent();
+            event.begin();
+        }
+
+        boolean provided = player.provide(frame);
+
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.guildId = guildId;
+                event.provided = provided;
+                event.commit();
+            }
+        }
 
-        if(lastFrame == null) {
+        if(!provided) {
             audioLossCounter.onLoss();
             return false;
         } else {
@@ -124,9 +172,24 @@ public class Player implements AudioSendHandler {
         }
     }
 
+    void parkSendSystem(Runnable waker) {
+        sendSystemWaker = waker;
+
+        // We may have been given a track after canProvide() saw that we were idle
+        if (isPlaying()) wakeSendSystem();
+    }
+
+    private void wakeSendSystem() {
+        Runnable waker = sendSystemWaker;
+        if (waker != null) {
+            sendSystemWaker = null;
+            waker.run();
+        }
+    }
+
     @Override
     public byte[] provide20MsAudio() {
-        return lastFrame.data;
+        return frameArrays.copyOf(frame);
     }
 
     @Override
@@ -142,4 +205,16 @@ public class Player implements AudioSendHandler {
         return player.getPlayingTrack() != null && !player.isPaused();
     }
 
+    public AudioTrack getPlayingTrack() {
+        return player.getPlayingTrack();
+    }
+
+    public long getIdleSince() {
+        return idleSince;
+    }
+
+    public void setIdleSince(long idleSince) {
+        this.idleSince = idleSince;
+    }
+
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.player;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a send system stop polling a player that is paused or has no track, until the player is given something to
+ * play again.
+ * <p>
+ * JDA doesn't tell a send system which player it belongs to, so {@link Player#canProvide()} leaves itself in a thread
+ * local when it is idle, and the send system that just asked it for a packet picks it up from there.
+ */
+public class SendParking {
+
+    // Parked systems are still polled this often, in case a player became playable without being woken
+    private static final long PROBE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ThreadLocal<Player> IDLE_PLAYER = new ThreadLocal<>();
+
+    private volatile boolean parked = false;
+    // Only used by the sending thread
+    private long parkedAt = 0; // ns
+
+    static void markIdle(Player player) {
+        IDLE_PLAYER.set(player);
+    }
+
+    /**
+     * @return true if the send system should skip its player this time
+     */
+    public boolean isParked(long now) {
+        if (!parked) return false;
+
+        if (now - parkedAt >= PROBE_INTERVAL) {
+            parked = false;
+            return false;
+        }
+
+        return true;
+    }
+
+    public boolean isParked() {
+        return parked;
+    }
+
+    /**
+     * Must be called before asking the packet provider for a packet.
+     */
+    public void beforePoll() {
+        IDLE_PLAYER.set(null);
+    }
+
+    /**
+     * Must be called when the packet provider returned no packet. Parks the send system if that was because the player
+     * is idle.
+     */
+    public void onMissingPacket(long now) {
+        Player player = IDLE_PLAYER.get();
+        if (player == null) return;
+
+        IDLE_PLAYER.set(null);
+        parkedAt = now;
+        parked = true;
+        player.parkSendSystem(this::unpark);
+    }
+
+    private void unpark() {
+        parked = false;
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.server.Config;
+import lavalink.server.Launcher;
+import lavalink.server.util.Util;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers load results by identifier, so that repeated searches don't go out to the sources again.
+ * Entries expire after a TTL that depends on the source. Results without any tracks are only kept briefly.
+ * The least recently used entries are evicted once the estimated memory use exceeds the limit.
+ * <p>
+ * Optionally, results are also kept on disk by a {@link TrackLoadStore}, so they aren't lost on restart.
+ */
+public class TrackLoadCache {
+
+    public static final TrackLoadCache INSTANCE = new TrackLoadCache(Launcher.config.getLoadCache());
+
+    // Rough overhead of an entry and of a track, on top of the encoded bytes
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int TRACK_OVERHEAD = 512;
+
+    private final Config.LoadCache config;
+    private final TrackLoadStore store;
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    // Found on disk after missing in memory. These aren't misses, as they don't go out to the sources
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    TrackLoadCache(Config.LoadCache config) {
+        this.config = config;
+        this.maxWeight = config.getMaxMemory() * 1024L * 1024L;
+        this.store = config.isEnabled() && config.getDiskPath() != null
+                ? new TrackLoadStore(Paths.get(config.getDiskPath()), config.getDiskSize() * 1024L * 1024L)
+                : null;
+    }
+
+    /**
+     * @return the cached result, or null if the identifier has to be loaded
+     */
+    LoadResult get(String identifier) {
+        if (!config.isEnabled()) return null;
+
+        LoadResult result = getFromMemory(identifier);
+        if (result != null) return result;
+
+        TrackLoadStore.Stored stored = store != null ? store.get(identifier) : null;
+        if (stored == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        diskHits.incrementAndGet();
+        putInMemory(identifier, stored.getResult(), stored.getExpiresAt());
+        return stored.getResult();
+    }
+
+    private synchronized LoadResult getFromMemory(String identifier) {
+        Entry entry = entries.get(identifier);
+
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            remove(identifier);
+            expirations.incrementAndGet();
+            entry = null;
+        }
+
+        if (entry == null) return null;
+
+        hits.incrementAndGet();
+        return entry.result;
+    }
+
+    void put(String identifier, LoadResult result) {
+        if (!config.isEnabled()) return;
+
+        long ttl = getTtl(result);
+        if (ttl <= 0) return;
+
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl);
+        putInMemory(identifier, result, expiresAt);
+
+        // Negative results are too short-lived to be worth keeping across restarts
+        if (store != null && !result.getTracks().isEmpty()) {
+            store.put(identifier, result, expiresAt);
+        }
+    }
+
+    private void putInMemory(String identifier, LoadResult result, long expiresAt) {
+        // Encoding is memoized on the tracks, so this also saves work when the result is sent
+        int entryWeight = getWeight(identifier, result);
+        Entry entry = new Entry(result, expiresAt, entryWeight);
+
+        synchronized (this) {
+            remove(identifier);
+            entries.put(identifier, entry);
+            weight += entryWeight;
+
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                weight -= iterator.next().weight;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void remove(String identifier) {
+        Entry removed = entries.remove(identifier);
+        if (removed != null) weight -= removed.weight;
+    }
+
+    private long getTtl(LoadResult result) {
+        if (result.getTracks().isEmpty()) return config.getNegativeTtl();
+
+        String source = result.getTracks().get(0).getSourceManager().getSourceName();
+        Long ttl = config.getSourceTtls().get(source);
+        return ttl != null ? ttl : config.getDefaultTtl();
+    }
+
+    private static int getWeight(String identifier, LoadResult result) {
+        int weight = ENTRY_OVERHEAD + identifier.length() * 2;
+
+        for (AudioTrack track : result.getTracks()) {
+            try {
+                weight += TRACK_OVERHEAD + Util.toBinary(track).length;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        return weight;
+    }
+
+    /**
+     * Flushes the disk tier, if there is one. Called when the application shuts down.
+     */
+    public void close() throws InterruptedException {
+        if (store != null) store.close();
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        synchronized (this) {
+            json.put("size", entries.size());
+            json.put("memory", weight);
+        }
+        json.put("hits", hits.get());
+        json.put("diskHits", diskHits.get());
+        json.put("misses", misses.get());
+        json.put("evictions", evictions.get());
+        json.put("expirations", expirations.get());
+        if (store != null) json.put("disk", store.getStats());
+        return json;
+    }
+
+    private static class Entry {
+
+        private final LoadResult result;
+        private final long expiresAt;
+        private final int weight;
+
+        private Entry(LoadResult result, long expiresAt, int weight) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+        }
+    }
+
+}
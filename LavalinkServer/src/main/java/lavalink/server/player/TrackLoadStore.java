@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.server.util.Util;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A memory-mapped log of load results that survives restarts, behind the {@link TrackLoadCache}.
+ * <p>
+ * The file starts with a header of magic, version and the end of the written data. Records are appended after it:
+ * <pre>
+ * int length (of the rest of the record), long expiresAt, byte status, int identifier length, identifier (UTF-8),
+ * int track count, and for each track: int length, encoded track
+ * </pre>
+ * The newest record of an identifier wins. When the file is full, or when much of it is outdated, the live records
+ * are copied to a new file which then replaces the old one.
+ * <p>
+ * The file is indexed in the background on startup. Until then, every lookup is a miss.
+ */
+class TrackLoadStore {
+
+    private static final Logger log = LoggerFactory.getLogger(TrackLoadStore.class);
+
+    private static final int MAGIC = 0x4C4C5453;
+    private static final int VERSION = 1;
+    private static final int END_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final int STATUS_OFFSET = Integer.BYTES + Long.BYTES; // After length and expiresAt
+    // expiresAt, status, identifier length and track count. The length field itself isn't counted
+    private static final int MIN_RECORD_LENGTH = Long.BYTES + 1 + 2 * Integer.BYTES;
+    private static final LoadResult.Status[] STATUSES = LoadResult.Status.values();
+
+    private final Path path;
+    private final int capacity;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Opening, writing and compacting all happen on this thread
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("track-store"));
+
+    private MappedByteBuffer buffer;
+    // Identifier -> offset of its newest record
+    private final Map<String, Integer> index = new HashMap<>();
+    private int end = HEADER_SIZE;
+    private long deadBytes = 0;
+    private volatile boolean loaded = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    /**
+     * @param capacity the size of the file, in bytes. A mapped file can't be larger than 2 GiB
+     */
+    TrackLoadStore(Path path, long capacity) {
+        if (capacity <= HEADER_SIZE || capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Track store capacity must be between " + HEADER_SIZE + " and "
+                    + Integer.MAX_VALUE + " bytes, got " + capacity);
+        }
+
+        this.path = path;
+        this.capacity = (int) capacity;
+        executor.execute(this::open);
+        executor.scheduleAtFixedRate(this::compactIfWasteful, 10, 10, TimeUnit.MINUTES);
+    }
+
+    private void open() {
+        lock.writeLock().lock();
+        try {
+            buffer = map(path, capacity);
+
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                writeHeader(buffer, HEADER_SIZE);
+            } else {
+                end = (int) Math.min(buffer.getLong(END_OFFSET), capacity);
+                scan();
+            }
+
+            loaded = true;
+            log.info("Opened track store with " + index.size() + " results at " + path);
+        } catch (IOException | RuntimeException e) {
+            // Anything thrown here would otherwise be swallowed by the executor
+            log.error("Could not open track store at " + path + ", continuing without it", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes the records up to the end in the header. Everything from the first record that doesn't check out onwards
+     * is discarded, as that is where a crash or a damaged file would have left it.
+     */
+    private void scan() {
+        int position = HEADER_SIZE;
+
+        while (position + Integer.BYTES <= end) {
+            String identifier;
+            try {
+                identifier = readIdentifier(position);
+            } catch (RuntimeException e) {
+                log.warn("Track store at " + path + " has a malformed record at " + position, e);
+                identifier = null;
+            }
+            if (identifier == null) break;
+
+            Integer previous = index.put(identifier, position);
+            if (previous != null) deadBytes += recordSize(previous);
+
+            position += recordSize(position);
+        }
+
+        if (position != end) {
+            log.warn("Track store at " + path + " has a damaged tail after " + position + " bytes, discarding "
+                    + (end - position) + " bytes");
+            end = position;
+            buffer.putLong(END_OFFSET, end);
+        }
+    }
+
+    /**
+     * Checks that the record at the given offset fits before the end and that every field in it is in bounds
+     *
+     * @return the record's identifier, or null if the record is damaged
+     */
+    private String readIdentifier(int offset) {
+        int length = buffer.getInt(offset);
+        int recordEnd = offset + Integer.BYTES + length;
+        if (length < MIN_RECORD_LENGTH || recordEnd < 0 || recordEnd > end) {
+            return null;
+        }
+
+        ByteBuffer record = buffer.duplicate();
+        record.limit(recordEnd);
+        record.position(offset + STATUS_OFFSET);
+
+        int status = record.get();
+        if (status < 0 || status >= STATUSES.length) return null;
+
+        int identifierLength = record.getInt();
+        if (identifierLength < 0 || identifierLength > record.remaining() - Integer.BYTES) return null;
+        byte[] identifier = new byte[identifierLength];
+        record.get(identifier);
+
+        int count = record.getInt();
+        if (count < 0) return null;
+        for (int i = 0; i < count; i++) {
+            if (record.remaining() < Integer.BYTES) return null;
+            int trackLength = record.getInt();
+            if (trackLength < 0 || trackLength > record.remaining()) return null;
+            record.position(record.position() + trackLength);
+        }
+
+        // Trailing bytes would mean the length doesn't match what was written
+        return record.hasRemaining() ? null : new String(identifier, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the stored result, or null if there is none or it has expired
+     */
+    Stored get(String identifier) {
+        if (!loaded) return null;
+
+        long expiresAt;
+        LoadResult.Status status;
+        List<byte[]> encoded = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            // Closing or a failed compaction may have dropped the mapping since the check above
+            if (!loaded) return null;
+
+            Integer offset = index.get(identifier);
+            if (offset == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + Integer.BYTES);
+            expiresAt = record.getLong();
+            status = STATUSES[record.get()];
+            int identifierLength = record.getInt();
+            record.position(record.position() + identifierLength);
+
+            if (expiresAt < System.currentTimeMillis()) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            int count = record.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] track = new byte[record.getInt()];
+                record.get(track);
+                encoded.add(track);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<AudioTrack> tracks = new ArrayList<>(encoded.size());
+        try {
+            for (byte[] track : encoded) {
+                AudioTrack decoded = Util.toAudioTrack(track);
+                // The source may have been disabled since this was stored
+                if (decoded == null) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+                tracks.add(decoded);
+            }
+        } catch (IOException e) {
+            log.warn("Could not decode stored result for " + identifier, e);
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return new Stored(new LoadResult(status, tracks), expiresAt);
+    }
+
+    /**
+     * Stores the result in the background
+     */
+    void put(String identifier, LoadResult result, long expiresAt) {
+        byte[] record;
+        try {
+            record = toRecord(identifier, result, expiresAt);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            executor.execute(() -> write(identifier, record));
+        } catch (RejectedExecutionException e) {
+            // Loads that finish while shutting down have nowhere to go
+            log.debug("Track store is closed, not storing " + identifier);
+        }
+    }
+
+    private void write(String identifier, byte[] record) {
+        if (!loaded) return;
+
+        lock.writeLock().lock();
+        try {
+            if (end + record.length > capacity) {
+                compact();
+                if (end + record.length > capacity) {
+                    log.warn("Track store is full, not storing " + identifier);
+                    return;
+                }
+            }
+
+            ByteBuffer target = buffer.duplicate();
+            target.position(end);
+            target.put(record);
+
+            Integer previous = index.put(identifier, end);
+            if (previous != null) deadBytes += recordSize(previous);
+
+            end += record.length;
+            buffer.putLong(END_OFFSET, end);
+        } catch (IOException e) {
+            log.error("Failed to write to track store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until everything queued on the background thread so far, such as opening the file, has been done
+     */
+    void sync() throws InterruptedException, ExecutionException {
+        executor.submit(() -> {
+        }).get();
+    }
+
+    /**
+     * Finishes the writes that are still queued, flushes them to disk and releases the file. The store can't be used
+     * after this.
+     */
+    void close() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Timed out waiting for the track store to finish writing");
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+
+            loaded = false;
+            buffer.force();
+            unmap(buffer);
+            buffer = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compactIfWasteful() {
+        if (!loaded) return;
+
+        lock.writeLock().lock();
+        try {
+            if (deadBytes > (end - HEADER_SIZE) / 2) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.error("Failed to compact track store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the live records to a new file and replaces the current file with it. Must hold the write lock.
+     */
+    private void compact() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        MappedByteBuffer target = map(temp, capacity);
+
+        long now = System.currentTimeMillis();
+        int position = HEADER_SIZE;
+        Map<String, Integer> compacted = new HashMap<>();
+
+        for (Map.Entry<String, Integer> entry : index.entrySet()) {
+            int offset = entry.getValue();
+            if (buffer.getLong(offset + Integer.BYTES) < now) continue;
+
+            int size = recordSize(offset);
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset);
+            record.limit(offset + size);
+
+            target.position(position);
+            target.put(record);
+            compacted.put(entry.getKey(), position);
+            position += size;
+        }
+
+        writeHeader(target, position);
+        target.force();
+
+        // A mapped file can't be replaced on every platform, so both mappings are released first and the file at our
+        // path is mapped again afterwards. If the move fails, that is still the old file, which the index matches.
+        unmap(target);
+        unmap(buffer);
+        buffer = null;
+
+        IOException moveFailure = null;
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            moveFailure = e;
+        }
+
+        try {
+            buffer = map(path, capacity);
+        } catch (IOException e) {
+            // Without a mapping there is nothing left to read or write
+            loaded = false;
+            log.error("Could not map track store at " + path + " again, continuing without it", e);
+            throw e;
+        }
+
+        if (moveFailure != null) throw moveFailure;
+
+        log.info("Compacted track store from " + end + " to " + position + " bytes");
+        index.clear();
+        index.putAll(compacted);
+        end = position;
+        deadBytes = 0;
+        compactions.incrementAndGet();
+    }
+
+    private int recordSize(int offset) {
+        return Integer.BYTES + buffer.getInt(offset);
+    }
+
+    private static byte[] toRecord(String identifier, LoadResult result, long expiresAt) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        byte[] identifierBytes = identifier.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(0); // Length, filled in below
+        out.writeLong(expiresAt);
+        out.writeByte(result.getStatus().ordinal());
+        out.writeInt(identifierBytes.length);
+        out.write(identifierBytes);
+        out.writeInt(result.getTracks().size());
+        for (AudioTrack track : result.getTracks()) {
+            byte[] encoded = Util.toBinary(track);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+
+        byte[] record = baos.toByteArray();
+        ByteBuffer.wrap(record).putInt(0, record.length - Integer.BYTES);
+        return record;
+    }
+
+    private static MappedByteBuffer map(Path path, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    /**
+     * Releases a mapping right away instead of whenever the buffer is garbage collected. There is no public API for
+     * this, so this uses the cleaner of Java 9+ or of Java 8, and otherwise leaves it to the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            // Java 8
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Could not unmap track store buffer", e);
+            return;
+        }
+
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Could not unmap track store buffer", e);
+        }
+    }
+
+    private static void writeHeader(ByteBuffer buffer, int end) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(END_OFFSET, end);
+    }
+
+    JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        lock.readLock().lock();
+        try {
+            json.put("size", index.size());
+            json.put("used", end);
+        } finally {
+            lock.readLock().unlock();
+        }
+        json.put("capacity", capacity);
+        json.put("hits", hits.get());
+        json.put("misses", misses.get());
+        json.put("compactions", compactions.get());
+        return json;
+    }
+
+    static class Stored {
+
+        private final LoadResult result;
+        private final long expiresAt;
+
+        private Stored(LoadResult result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+
+        LoadResult getResult() {
+            return result;
+        }
+
+        long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+}
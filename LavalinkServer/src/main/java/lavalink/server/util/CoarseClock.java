@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.util;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that is updated in the background, for code that needs the time on every audio frame
+ * but doesn't care about better than {@link #RESOLUTION} ms of precision.
+ */
+public class CoarseClock {
+
+    public static final long RESOLUTION = 10; // ms
+
+    private static volatile long now = System.currentTimeMillis();
+
+    static {
+        Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("coarse-clock"))
+                .scheduleAtFixedRate(() -> now = System.currentTimeMillis(), RESOLUTION, RESOLUTION, TimeUnit.MILLISECONDS);
+    }
+
+    private CoarseClock() {
+    }
+
+    public static long currentTimeMillis() {
+        return now;
+    }
+
+    public static long currentSecond() {
+        return now / 1000;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.util;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.server.Launcher;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps decoded prototypes of recently played tracks, so that popular tracks don't have to be decoded for every play.
+ * Prototypes are never played themselves, each play gets a clone.
+ */
+public class DecodedTrackCache {
+
+    public static final DecodedTrackCache INSTANCE = new DecodedTrackCache(Launcher.config.getDecodedTrackCacheSize());
+
+    private final int maxSize;
+    // Keyed by the base64 string or the wrapped binary, depending on what the client sent
+    private final LinkedHashMap<Object, AudioTrack> prototypes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of prototypes kept. 0 disables the cache
+     */
+    DecodedTrackCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.prototypes = new LinkedHashMap<Object, AudioTrack>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, AudioTrack> eldest) {
+                if (size() <= DecodedTrackCache.this.maxSize) return false;
+
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    public AudioTrack decode(String message) throws IOException {
+        AudioTrack prototype = getPrototype(message);
+        if (prototype == null) {
+            prototype = Util.toAudioTrack(message);
+            putPrototype(message, prototype);
+        }
+        return makeClone(prototype);
+    }
+
+    public AudioTrack decode(byte[] message) throws IOException {
+        ByteBuffer key = ByteBuffer.wrap(message);
+        AudioTrack prototype = getPrototype(key);
+        if (prototype == null) {
+            prototype = Util.toAudioTrack(message);
+            putPrototype(key, prototype);
+        }
+        return makeClone(prototype);
+    }
+
+    private synchronized AudioTrack getPrototype(Object key) {
+        AudioTrack prototype = prototypes.get(key);
+
+        if (prototype == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return prototype;
+    }
+
+    private synchronized void putPrototype(Object key, AudioTrack prototype) {
+        if (maxSize > 0 && prototype != null) {
+            prototypes.put(key, prototype);
+        }
+    }
+
+    private static AudioTrack makeClone(AudioTrack prototype) {
+        if (prototype == null) return null;
+
+        AudioTrack track = prototype.makeClone();
+        // Clones start at 0, but the client may have sent a track with a position
+        if (prototype.getPosition() != 0) {
+            track.setPosition(prototype.getPosition());
+        }
+        return track;
+    }
+
+    public JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        long hits = this.hits.get();
+        long misses = this.misses.get();
+
+        synchronized (this) {
+            json.put("size", prototypes.size());
+        }
+        json.put("hits", hits);
+        json.put("misses", misses);
+        json.put("hitRate", hits + misses == 0 ? 0d : (double) hits / (hits + misses));
+        json.put("evictions", evictions.get());
+        return json;
+    }
+
+}
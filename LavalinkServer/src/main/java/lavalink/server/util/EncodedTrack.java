@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.util;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.common.BinaryValue;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * The encoded form of a track, kept in the track's user data so it is only serialized once.
+ * <p>
+ * The encoded message ends with the track position. Rather than serializing again when the position has changed,
+ * we copy the message and patch those last 8 bytes. The last patched form is kept as well, since events and player
+ * updates tend to ask for the same position more than once.
+ */
+class EncodedTrack {
+
+    private static final int POSITION_BYTES = Long.BYTES;
+
+    private final Form original;
+    private volatile Form patched = null;
+
+    private EncodedTrack(byte[] binary, long position, String message) {
+        this.original = new Form(binary, position, message);
+    }
+
+    /**
+     * @return the encoded form attached to the track, or null if it has none
+     */
+    static EncodedTrack get(AudioTrack track) {
+        Object userData = track.getUserData();
+        return userData instanceof EncodedTrack ? (EncodedTrack) userData : null;
+    }
+
+    /**
+     * Attaches the encoded form to the track, unless the track's user data is used for something else
+     *
+     * @return the encoded form, even if it couldn't be attached
+     */
+    static EncodedTrack attach(AudioTrack track, byte[] binary, String message) {
+        EncodedTrack encoded = new EncodedTrack(binary, track.getPosition(), message);
+
+        if (track.getUserData() == null || track.getUserData() instanceof EncodedTrack) {
+            track.setUserData(encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * @return the encoded track at the given position, in whichever form the wire format needs
+     */
+    BinaryValue at(long position) {
+        return getForm(position);
+    }
+
+    /**
+     * @return the encoded track at the given position. Must not be modified
+     */
+    byte[] getBinary(long position) {
+        return getForm(position).getBytes();
+    }
+
+    String getMessage(long position) {
+        return getForm(position).getBase64();
+    }
+
+    private Form getForm(long position) {
+        if (position == original.position) return original;
+
+        Form patched = this.patched;
+        if (patched != null && patched.position == position) return patched;
+
+        byte[] copy = original.binary.clone();
+        for (int i = 0; i < POSITION_BYTES; i++) {
+            copy[copy.length - 1 - i] = (byte) (position >>> (8 * i));
+        }
+
+        patched = new Form(copy, position, null);
+        this.patched = patched;
+        return patched;
+    }
+
+    private static class Form implements BinaryValue {
+
+        private final byte[] binary;
+        private final long position;
+        private volatile String message;
+
+        private Form(byte[] binary, long position, String message) {
+            this.binary = binary;
+            this.position = position;
+            this.message = message;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return binary;
+        }
+
+        @Override
+        public String getBase64() {
+            String message = this.message;
+            if (message == null) {
+                message = Base64.encodeBase64String(binary);
+                this.message = message;
+            }
+            return message;
+        }
+    }
+
+}
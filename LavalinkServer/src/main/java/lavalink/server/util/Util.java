@@ -24,7 +24,9 @@ package lavalink.server.util;
 
 import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
 import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.common.BinaryValue;
 import lavalink.server.player.Player;
 import org.apache.commons.codec.binary.Base64;
 
@@ -35,19 +37,64 @@ import java.io.IOException;
 public class Util {
 
     public static int getShardFromSnowflake(String snowflake, int numShards) {
-        return (int) ((Long.parseLong(snowflake) >> 22) % numShards);
+        return getShardFromSnowflake(Long.parseLong(snowflake), numShards);
+    }
+
+    public static int getShardFromSnowflake(long snowflake, int numShards) {
+        return (int) ((snowflake >> 22) % numShards);
     }
 
     public static AudioTrack toAudioTrack(String message) throws IOException {
-        byte[] b64 = Base64.decodeBase64(message);
-        ByteArrayInputStream bais = new ByteArrayInputStream(b64);
-        return Player.PLAYER_MANAGER.decodeTrack(new MessageInput(bais)).decodedTrack;
+        byte[] binary = Base64.decodeBase64(message);
+        AudioTrack track = decode(binary);
+        if (track != null) EncodedTrack.attach(track, binary, message);
+        return track;
+    }
+
+    public static AudioTrack toAudioTrack(byte[] message) throws IOException {
+        AudioTrack track = decode(message);
+        if (track != null) EncodedTrack.attach(track, message, null);
+        return track;
     }
 
+    private static AudioTrack decode(byte[] message) throws IOException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(message);
+        DecodedTrackHolder holder = Player.PLAYER_MANAGER.decodeTrack(new MessageInput(bais));
+        // No holder at all means the input wasn't an encoded track
+        if (holder == null) throw new IOException("Not an encoded track");
+        return holder.decodedTrack;
+    }
+
+    /**
+     * The encoded form is cached in the track's user data, so this is cheap after the first call
+     */
     public static String toMessage(AudioTrack track) throws IOException {
+        return getEncoded(track).getMessage(track.getPosition());
+    }
+
+    /**
+     * The encoded form is cached in the track's user data, so this is cheap after the first call.
+     * The returned array may be shared and must not be modified.
+     */
+    public static byte[] toBinary(AudioTrack track) throws IOException {
+        return getEncoded(track).getBinary(track.getPosition());
+    }
+
+    /**
+     * The encoded track for sending over the websocket. Both the binary and the base64 form are cached, so this is
+     * cheap for MessagePack and JSON connections alike.
+     */
+    public static BinaryValue toEncoded(AudioTrack track) throws IOException {
+        return getEncoded(track).at(track.getPosition());
+    }
+
+    private static EncodedTrack getEncoded(AudioTrack track) throws IOException {
+        EncodedTrack encoded = EncodedTrack.get(track);
+        if (encoded != null) return encoded;
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Player.PLAYER_MANAGER.encodeTrack(new MessageOutput(baos), track);
-        return Base64.encodeBase64String(baos.toByteArray());
+        return EncodedTrack.attach(track, baos.toByteArray(), null);
     }
 
 }
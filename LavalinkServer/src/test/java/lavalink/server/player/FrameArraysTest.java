@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+class FrameArraysTest {
+
+    @Test
+    void exactLengthTest() {
+        FrameArrays arrays = new FrameArrays();
+        MutableAudioFrame frame = newFrame();
+        byte[] data = {1, 2, 3};
+        frame.store(data, 0, data.length);
+
+        byte[] copy = arrays.copyOf(frame);
+
+        Assertions.assertArrayEquals(data, copy);
+        Assertions.assertSame(copy, arrays.copyOf(frame));
+    }
+
+    @Test
+    void sharedSlotTest() {
+        FrameArrays arrays = new FrameArrays();
+        MutableAudioFrame frame = newFrame();
+        byte[] shorter = filled(10, (byte) 1);
+        byte[] longer = filled(10 + FrameArrays.SLOTS, (byte) 2);
+
+        frame.store(shorter, 0, shorter.length);
+        byte[] first = arrays.copyOf(frame);
+        frame.store(longer, 0, longer.length);
+        byte[] second = arrays.copyOf(frame);
+
+        // Both lengths use the same slot, so each replaces the other without mixing up their data
+        Assertions.assertArrayEquals(longer, second);
+        frame.store(shorter, 0, shorter.length);
+        byte[] third = arrays.copyOf(frame);
+        Assertions.assertArrayEquals(shorter, third);
+        Assertions.assertNotSame(first, third);
+    }
+
+    private static byte[] filled(int length, byte value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, value);
+        return data;
+    }
+
+    private static MutableAudioFrame newFrame() {
+        MutableAudioFrame frame = new MutableAudioFrame();
+        frame.setBuffer(ByteBuffer.allocate(512));
+        return frame;
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BaseAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.ImmutableAudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import lavalink.server.Config;
+import lavalink.server.Launcher;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+class PlayerTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PlayerTest.class);
+
+    // Opus frames of a music track, roughly. Their lengths vary around this from one frame to the next
+    private static final int MEAN_LENGTH = 300;
+    private static final int LENGTH_DEVIATION = 40;
+    private static final int WARMUP_FRAMES = 5_000;
+    private static final int FRAMES = 50_000;
+
+    @BeforeAll
+    static void setUp() {
+        // The player manager reads its sources from the config
+        if (Launcher.config == null) {
+            Launcher.config = new Config();
+        }
+    }
+
+    @Test
+    void provideTest() {
+        Player player = new Player(null, 1L);
+        player.play(new FrameTrack());
+
+        byte[] data = nextFrame(() -> player.canProvide() ? player.provide20MsAudio() : null);
+
+        Assertions.assertTrue(data.length > 0 && data.length <= StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+        // Stopping would send a track end event to a socket we don't have
+        player.setPause(true);
+    }
+
+    /**
+     * Compares what the sending thread allocates per frame with and without the player's reusable frame. Timing and
+     * JIT noise make exact numbers unreliable, so this only reports them and checks that the player allocates less.
+     */
+    @Test
+    void provideAllocationTest() {
+        Assumptions.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // What providing cost before frames were reused: a new frame and array every time
+        AudioPlayer audioPlayer = Player.PLAYER_MANAGER.createPlayer();
+        audioPlayer.playTrack(new FrameTrack());
+        double allocating = measure(threads, () -> {
+            AudioFrame frame = audioPlayer.provide();
+            return frame != null ? frame.getData() : null;
+        });
+        audioPlayer.destroy();
+
+        Player player = new Player(null, 2L);
+        player.play(new FrameTrack());
+        double reusing = measure(threads, () -> player.canProvide() ? player.provide20MsAudio() : null);
+        player.setPause(true);
+
+        log.info("Allocated " + allocating + " bytes per frame with allocated frames, "
+                + reusing + " bytes per frame with the player's reused frame");
+        Assertions.assertTrue(reusing < allocating,
+                "Expected the player to allocate less than " + allocating + " bytes per frame, got " + reusing);
+    }
+
+    private static double measure(com.sun.management.ThreadMXBean threads, Supplier<byte[]> provider) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            nextFrame(provider);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long checksum = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            checksum += nextFrame(provider).length;
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        Assertions.assertTrue(checksum > 0);
+        return (double) allocated / FRAMES;
+    }
+
+    /**
+     * Frames are produced by another thread, so wait for one like a send system would poll again
+     */
+    private static byte[] nextFrame(Supplier<byte[]> provider) {
+        byte[] data;
+        while ((data = provider.get()) == null) {
+            Thread.yield();
+        }
+        return data;
+    }
+
+    /**
+     * An endless stream of Opus frames with varying lengths, as a decoded track would produce them
+     */
+    private static class FrameTrack extends BaseAudioTrack {
+
+        private FrameTrack() {
+            super(new AudioTrackInfo("frames", "author", Long.MAX_VALUE, "frames", true, null));
+        }
+
+        @Override
+        public void process(LocalAudioTrackExecutor executor) throws Exception {
+            int maximumLength = StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize();
+            byte[] source = new byte[maximumLength];
+            Random random = new Random(0);
+
+            for (long timecode = 0; ; timecode += 20) {
+                int length = (int) (MEAN_LENGTH + random.nextGaussian() * LENGTH_DEVIATION);
+                length = Math.max(1, Math.min(maximumLength, length));
+                executor.getAudioBuffer().consume(new ImmutableAudioFrame(timecode,
+                        Arrays.copyOf(source, length), 100, StandardAudioDataFormats.DISCORD_OPUS));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.player;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class TrackLoadStoreTest {
+
+    private static final int CAPACITY = 64 * 1024;
+    private static final int HEADER_SIZE = 16;
+    // A result without tracks for a one byte identifier: length, expiresAt, status, identifier length, identifier, count
+    private static final int RECORD_SIZE = 4 + 8 + 1 + 4 + 1 + 4;
+    private static final int SECOND_RECORD = HEADER_SIZE + RECORD_SIZE;
+
+    private Path path;
+    private TrackLoadStore opened;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        path = Files.createTempFile("trackstore", ".bin");
+        Files.delete(path);
+    }
+
+    @AfterEach
+    void deleteFile() throws Exception {
+        if (opened != null) opened.close();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(path.resolveSibling(path.getFileName() + ".tmp"));
+    }
+
+    @Test
+    void reopenTest() throws Exception {
+        writeTwoRecords();
+
+        TrackLoadStore store = open();
+
+        Assertions.assertEquals(2, store.getStats().getInt("size"));
+        Assertions.assertEquals(LoadResult.Status.NO_MATCHES, store.get("a").getResult().getStatus());
+        Assertions.assertEquals(LoadResult.Status.LOAD_FAILED, store.get("b").getResult().getStatus());
+        Assertions.assertNull(store.get("c"));
+    }
+
+    @Test
+    void newestRecordWinsTest() throws Exception {
+        TrackLoadStore store = new TrackLoadStore(path, CAPACITY);
+        store.put("a", LoadResult.empty(LoadResult.Status.NO_MATCHES), expiresAt());
+        store.put("a", LoadResult.empty(LoadResult.Status.LOAD_FAILED), expiresAt());
+        store.close();
+
+        store = open();
+
+        Assertions.assertEquals(1, store.getStats().getInt("size"));
+        Assertions.assertEquals(LoadResult.Status.LOAD_FAILED, store.get("a").getResult().getStatus());
+    }
+
+    @Test
+    void corruptIdentifierLengthTest() throws Exception {
+        writeTwoRecords();
+        corrupt(SECOND_RECORD + 4 + 8 + 1, ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE));
+
+        assertTruncatedAfterFirstRecord();
+    }
+
+    @Test
+    void corruptStatusTest() throws Exception {
+        writeTwoRecords();
+        corrupt(SECOND_RECORD + 4 + 8, ByteBuffer.allocate(1).put((byte) 99));
+
+        assertTruncatedAfterFirstRecord();
+    }
+
+    @Test
+    void corruptLengthTest() throws Exception {
+        writeTwoRecords();
+        corrupt(SECOND_RECORD, ByteBuffer.allocate(4).putInt(-5));
+
+        assertTruncatedAfterFirstRecord();
+    }
+
+    @Test
+    void endPastRecordsTest() throws Exception {
+        writeTwoRecords();
+        // As if the end was written but the last record never made it to disk
+        corrupt(8, ByteBuffer.allocate(8).putLong(HEADER_SIZE + 10L * RECORD_SIZE));
+
+        TrackLoadStore store = open();
+
+        Assertions.assertEquals(2, store.getStats().getInt("size"));
+        Assertions.assertEquals(HEADER_SIZE + 2 * RECORD_SIZE, store.getStats().getInt("used"));
+    }
+
+    @Test
+    void writeAfterRecoveryTest() throws Exception {
+        writeTwoRecords();
+        corrupt(SECOND_RECORD + 4 + 8, ByteBuffer.allocate(1).put((byte) 99));
+
+        TrackLoadStore store = new TrackLoadStore(path, CAPACITY);
+        store.put("c", LoadResult.empty(LoadResult.Status.NO_MATCHES), expiresAt());
+        store.close();
+
+        store = open();
+
+        Assertions.assertEquals(2, store.getStats().getInt("size"));
+        Assertions.assertNotNull(store.get("a"));
+        Assertions.assertNull(store.get("b"));
+        Assertions.assertNotNull(store.get("c"));
+    }
+
+    @Test
+    void compactWhenFullTest() throws Exception {
+        TrackLoadStore store = new TrackLoadStore(path, CAPACITY);
+        // Only the newest of these is live, so filling the file makes room by compacting it
+        for (int i = 0; i < 2 * CAPACITY / RECORD_SIZE; i++) {
+            store.put("a", LoadResult.empty(LoadResult.Status.NO_MATCHES), expiresAt());
+        }
+        store.put("b", LoadResult.empty(LoadResult.Status.LOAD_FAILED), expiresAt());
+        store.sync();
+
+        Assertions.assertTrue(store.getStats().getLong("compactions") > 0);
+        Assertions.assertNotNull(store.get("a"));
+        store.close();
+
+        store = open();
+
+        Assertions.assertEquals(2, store.getStats().getInt("size"));
+        Assertions.assertEquals(LoadResult.Status.LOAD_FAILED, store.get("b").getResult().getStatus());
+    }
+
+    @Test
+    void capacityTest() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new TrackLoadStore(path, 2048L * 1024 * 1024));
+    }
+
+    private void assertTruncatedAfterFirstRecord() throws Exception {
+        TrackLoadStore store = open();
+
+        Assertions.assertEquals(1, store.getStats().getInt("size"));
+        Assertions.assertEquals(SECOND_RECORD, store.getStats().getInt("used"));
+        Assertions.assertNotNull(store.get("a"));
+        Assertions.assertNull(store.get("b"));
+    }
+
+    /**
+     * Writes are queued behind opening the file, so they can be made straight away
+     */
+    private void writeTwoRecords() throws Exception {
+        TrackLoadStore store = new TrackLoadStore(path, CAPACITY);
+        store.put("a", LoadResult.empty(LoadResult.Status.NO_MATCHES), expiresAt());
+        store.put("b", LoadResult.empty(LoadResult.Status.LOAD_FAILED), expiresAt());
+        store.close();
+    }
+
+    /**
+     * @return a store that has finished opening. It is closed after the test
+     */
+    private TrackLoadStore open() throws Exception {
+        TrackLoadStore store = new TrackLoadStore(path, CAPACITY);
+        store.sync();
+        opened = store;
+        return store;
+    }
+
+    private void corrupt(int offset, ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(bytes, offset);
+        }
+    }
+
+    private static long expiresAt() {
+        return System.currentTimeMillis() + 60000;
+    }
+
+}
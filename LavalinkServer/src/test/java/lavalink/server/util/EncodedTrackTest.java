@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen & NoobLance
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lavalink.server.util;
+
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BaseAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import lavalink.common.BinaryValue;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+class EncodedTrackTest {
+
+    @Test
+    void originalPositionTest() {
+        byte[] binary = encoded(1000);
+        AudioTrack track = track(1000);
+
+        EncodedTrack encoded = EncodedTrack.attach(track, binary, null);
+
+        Assertions.assertSame(encoded, EncodedTrack.get(track));
+        Assertions.assertSame(binary, encoded.getBinary(1000));
+        Assertions.assertEquals(Base64.encodeBase64String(binary), encoded.getMessage(1000));
+        // The message is only encoded once
+        Assertions.assertSame(encoded.getMessage(1000), encoded.getMessage(1000));
+    }
+
+    @Test
+    void providedMessageTest() {
+        byte[] binary = encoded(0);
+        String message = Base64.encodeBase64String(binary);
+
+        EncodedTrack encoded = EncodedTrack.attach(track(0), binary, message);
+
+        Assertions.assertSame(message, encoded.getMessage(0));
+    }
+
+    @Test
+    void patchedPositionTest() {
+        byte[] binary = encoded(0);
+        EncodedTrack encoded = EncodedTrack.attach(track(0), binary, null);
+
+        byte[] patched = encoded.getBinary(123456789L);
+
+        Assertions.assertArrayEquals(encoded(123456789L), patched);
+        // The original is left alone
+        Assertions.assertArrayEquals(encoded(0), binary);
+        // The last patched position is kept
+        Assertions.assertSame(patched, encoded.getBinary(123456789L));
+        Assertions.assertEquals(Base64.encodeBase64String(patched), encoded.getMessage(123456789L));
+        Assertions.assertSame(encoded.getMessage(123456789L), encoded.getMessage(123456789L));
+    }
+
+    @Test
+    void wireValueTest() {
+        EncodedTrack encoded = EncodedTrack.attach(track(0), encoded(0), null);
+
+        BinaryValue value = encoded.at(5000);
+
+        Assertions.assertArrayEquals(encoded(5000), value.getBytes());
+        Assertions.assertSame(encoded.getMessage(5000), value.getBase64());
+    }
+
+    /**
+     * Patching assumes that lavaplayer writes the position as the last 8 bytes, so check that against lavaplayer itself
+     */
+    @Test
+    void lavaplayerPositionTest() throws IOException {
+        DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
+        YoutubeAudioSourceManager sourceManager = new YoutubeAudioSourceManager();
+        manager.registerSourceManager(sourceManager);
+        try {
+            AudioTrack track = new YoutubeAudioTrack(new AudioTrackInfo("title", "author", 212000, "dQw4w9WgXcQ",
+                    false, "https://www.youtube.com/watch?v=dQw4w9WgXcQ"), sourceManager);
+            byte[] atStart = encode(manager, track);
+            track.setPosition(90000);
+            byte[] later = encode(manager, track);
+
+            EncodedTrack encoded = EncodedTrack.attach(track, atStart, null);
+
+            Assertions.assertArrayEquals(later, encoded.getBinary(90000));
+            Assertions.assertArrayEquals(atStart, encoded.getBinary(0));
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static byte[] encode(DefaultAudioPlayerManager manager, AudioTrack track) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manager.encodeTrack(new MessageOutput(out), track);
+        return out.toByteArray();
+    }
+
+    @Test
+    void foreignUserDataTest() {
+        AudioTrack track = track(0);
+        Object userData = new Object();
+        track.setUserData(userData);
+
+        EncodedTrack.attach(track, encoded(0), null);
+
+        Assertions.assertSame(userData, track.getUserData());
+        Assertions.assertNull(EncodedTrack.get(track));
+    }
+
+    /**
+     * Stands in for an encoded track, which ends with the position as a long
+     */
+    private static byte[] encoded(long position) {
+        return ByteBuffer.allocate(16)
+                .putLong(0x0102030405060708L)
+                .putLong(position)
+                .array();
+    }
+
+    private static AudioTrack track(long position) {
+        AudioTrack track = new BaseAudioTrack(new AudioTrackInfo("title", "author", 60000, "identifier", false, "uri")) {
+            @Override
+            public void process(LocalAudioTrackExecutor executor) {
+            }
+        };
+        track.setPosition(position);
+        return track;
+    }
+
+}